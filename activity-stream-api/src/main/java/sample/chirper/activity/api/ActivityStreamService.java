@@ -4,27 +4,52 @@
 package sample.chirper.activity.api;
 
 import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpPage;
 
 import akka.stream.javadsl.Source;
 
-import akka.NotUsed;
+import org.pcollections.PSequence;
+
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
+import com.lightbend.lagom.javadsl.api.transport.Method;
 import static com.lightbend.lagom.javadsl.api.Service.*;
 
 public interface ActivityStreamService extends Service {
 
-  ServiceCall<String, NotUsed, Source<Chirp, ?>> getLiveActivityStream();
+  /**
+   * The live activity stream of a user, the request's resume point continues
+   * the stream of a client that was disconnected.
+   */
+  ServiceCall<String, LiveActivityStreamReq, Source<Chirp, ?>> getLiveActivityStream();
+
+  /**
+   * The same chirps as {@link #getLiveActivityStream()}, grouped into batches
+   * of the chirps that were published within a short time window.
+   */
+  ServiceCall<String, LiveActivityStreamReq, Source<PSequence<Chirp>, ?>> getLiveActivityStreamBatches();
+
+  /**
+   * The activity history of a user, bounded by the request's time range and
+   * max count.
+   */
+  ServiceCall<String, HistoricalActivityStreamReq, Source<Chirp, ?>> getHistoricalActivityStream();
 
-  ServiceCall<String, NotUsed, Source<Chirp, ?>> getHistoricalActivityStream();
+  /**
+   * One page of the activity history of a user, the request's cursor
+   * continues a previous page.
+   */
+  ServiceCall<String, HistoricalActivityStreamReq, ChirpPage> getHistoricalActivityStreamPage();
 
   @Override
   default Descriptor descriptor() {
     // @formatter:off
     return named("activityservice").with(
         pathCall("/api/activity/:userId/live", getLiveActivityStream()),
-        pathCall("/api/activity/:userId/history", getHistoricalActivityStream())
+        pathCall("/api/activity/:userId/live/batched", getLiveActivityStreamBatches()),
+        pathCall("/api/activity/:userId/history", getHistoricalActivityStream()),
+        restCall(Method.POST, "/api/activity/:userId/history/page", getHistoricalActivityStreamPage())
       ).withAutoAcl(true);
     // @formatter:on
   }
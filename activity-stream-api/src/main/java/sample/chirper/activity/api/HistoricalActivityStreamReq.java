@@ -4,6 +4,7 @@
 package sample.chirper.activity.api;
 
 import java.time.Instant;
+import java.util.Optional;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -11,15 +12,38 @@ import javax.annotation.concurrent.Immutable;
 import com.fasterxml.jackson.annotation.JsonCreator;
 
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
 
 @Immutable
 public final class HistoricalActivityStreamReq {
 
-  public Instant fromTime;
+  public final Instant fromTime;
+  /**
+   * Only chirps before this time are returned.
+   */
+  public final Optional<Instant> toTime;
+  /**
+   * The maximum number of chirps the activity history stream returns.
+   */
+  public final Optional<Integer> maxCount;
+  /**
+   * The maximum number of chirps a page returns.
+   */
+  public final Optional<Integer> pageSize;
+  public final Optional<String> cursor;
 
-  @JsonCreator
   public HistoricalActivityStreamReq(Instant fromTime) {
-	  this.fromTime = fromTime;
+    this(fromTime, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+  }
+
+  @JsonCreator
+  public HistoricalActivityStreamReq(Instant fromTime, Optional<Instant> toTime, Optional<Integer> maxCount,
+      Optional<Integer> pageSize, Optional<String> cursor) {
+    this.fromTime = Preconditions.checkNotNull(fromTime, "fromTime");
+    this.toTime = Preconditions.checkNotNull(toTime, "toTime");
+    this.maxCount = Preconditions.checkNotNull(maxCount, "maxCount");
+    this.pageSize = Preconditions.checkNotNull(pageSize, "pageSize");
+    this.cursor = Preconditions.checkNotNull(cursor, "cursor");
   }
 
   @Override
@@ -30,13 +54,19 @@ public final class HistoricalActivityStreamReq {
   }
 
   private boolean equalTo(HistoricalActivityStreamReq another) {
-    return fromTime.equals(another.fromTime);
+    return fromTime.equals(another.fromTime) && toTime.equals(another.toTime)
+        && maxCount.equals(another.maxCount) && pageSize.equals(another.pageSize)
+        && cursor.equals(another.cursor);
   }
 
   @Override
   public int hashCode() {
     int h = 31;
     h = h * 17 + fromTime.hashCode();
+    h = h * 17 + toTime.hashCode();
+    h = h * 17 + maxCount.hashCode();
+    h = h * 17 + pageSize.hashCode();
+    h = h * 17 + cursor.hashCode();
     return h;
   }
 
@@ -44,6 +74,10 @@ public final class HistoricalActivityStreamReq {
   public String toString() {
     return MoreObjects.toStringHelper("HistoricalActivityStreamReq")
         .add("fromTime", fromTime)
+        .add("toTime", toTime)
+        .add("maxCount", maxCount)
+        .add("pageSize", pageSize)
+        .add("cursor", cursor)
         .toString();
   }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.activity.api;
+
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+@Immutable
+public final class LiveActivityStreamReq {
+
+  /**
+   * The id of the last chirp a client received before it was disconnected,
+   * see {@link sample.chirper.chirp.api.LiveChirpsRequest#resumeAfter}.
+   */
+  public final Optional<String> resumeAfter;
+
+  public LiveActivityStreamReq() {
+    this(Optional.empty());
+  }
+
+  @JsonCreator
+  public LiveActivityStreamReq(Optional<String> resumeAfter) {
+    this.resumeAfter = Preconditions.checkNotNull(resumeAfter, "resumeAfter");
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another) return true;
+    return another instanceof LiveActivityStreamReq
+        && equalTo((LiveActivityStreamReq) another);
+  }
+
+  private boolean equalTo(LiveActivityStreamReq another) {
+    return resumeAfter.equals(another.resumeAfter);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + resumeAfter.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("LiveActivityStreamReq")
+        .add("resumeAfter", resumeAfter)
+        .toString();
+  }
+}
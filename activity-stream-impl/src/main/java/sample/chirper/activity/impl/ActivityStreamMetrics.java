@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.activity.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import play.Logger;
+import play.Logger.ALogger;
+
+/**
+ * Node local counters of the activity stream service, registered as a JMX
+ * MBean.
+ */
+@Singleton
+public class ActivityStreamMetrics implements ActivityStreamMetricsMBean {
+
+  public static final String OBJECT_NAME = "sample.chirper:type=ActivityStreamMetrics";
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final AtomicLong userCacheHits = new AtomicLong();
+  private final AtomicLong userCacheMisses = new AtomicLong();
+  private final AtomicLong userLookupsCoalesced = new AtomicLong();
+
+  @Inject
+  public ActivityStreamMetrics() {
+    register();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      // there is only one service instance per JVM, except in tests
+      if (server.isRegistered(name))
+        server.unregisterMBean(name);
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      log.warn("Failed to register activity stream metrics MBean, due to: " + e.getMessage(), e);
+    }
+  }
+
+  public void userCacheHit() {
+    userCacheHits.incrementAndGet();
+  }
+
+  public void userCacheMiss() {
+    userCacheMisses.incrementAndGet();
+  }
+
+  public void userLookupCoalesced() {
+    userLookupsCoalesced.incrementAndGet();
+  }
+
+  @Override
+  public long getUserCacheHits() {
+    return userCacheHits.get();
+  }
+
+  @Override
+  public long getUserCacheMisses() {
+    return userCacheMisses.get();
+  }
+
+  @Override
+  public long getUserLookupsCoalesced() {
+    return userLookupsCoalesced.get();
+  }
+
+}
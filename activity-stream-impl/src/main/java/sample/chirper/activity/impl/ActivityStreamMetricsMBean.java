@@ -0,0 +1,21 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.activity.impl;
+
+/**
+ * The metrics of the activity stream service, exposed over JMX as
+ * <code>sample.chirper:type=ActivityStreamMetrics</code>.
+ */
+public interface ActivityStreamMetricsMBean {
+
+  /** Total number of user lookups that were served from the cache. */
+  long getUserCacheHits();
+
+  /** Total number of user lookups that had to call the friend service. */
+  long getUserCacheMisses();
+
+  /** Total number of user lookups that joined a friend service call already in flight. */
+  long getUserLookupsCoalesced();
+
+}
@@ -5,56 +5,126 @@ package sample.chirper.activity.impl;
 
 import akka.NotUsed;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
 import javax.inject.Inject;
 import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
 import sample.chirper.activity.api.ActivityStreamService;
+import sample.chirper.activity.api.HistoricalActivityStreamReq;
+import sample.chirper.activity.api.LiveActivityStreamReq;
 import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpPage;
 import sample.chirper.chirp.api.ChirpService;
 import sample.chirper.chirp.api.HistoricalChirpsRequest;
 import sample.chirper.chirp.api.LiveChirpsRequest;
+import sample.chirper.chirp.api.TimelineRequest;
+import sample.chirper.friend.api.FriendId;
 import sample.chirper.friend.api.FriendService;
+import sample.chirper.friend.api.User;
 
 import akka.stream.javadsl.Source;
+import play.Configuration;
 
 public class ActivityStreamServiceImpl implements ActivityStreamService {
 
   private final FriendService friendService;
+  private final UserCache userCache;
   private final ChirpService chirpService;
+  private final boolean historyFromTimeline;
+  private final int maxAddedFriends;
 
   @Inject
-  public ActivityStreamServiceImpl(FriendService friendService, ChirpService chirpService) {
+  public ActivityStreamServiceImpl(FriendService friendService, UserCache userCache, ChirpService chirpService,
+      Configuration configuration) {
     this.friendService = friendService;
+    this.userCache = userCache;
     this.chirpService = chirpService;
+    this.historyFromTimeline = configuration.getBoolean("activity.history-from-timeline");
+    this.maxAddedFriends = configuration.getInt("activity.live-max-added-friends");
   }
 
   @Override
-  public ServiceCall<String, NotUsed, Source<Chirp, ?>> getLiveActivityStream() {
-    return (id, req) -> {
-      return friendService.getUser().invoke(id, NotUsed.getInstance()).thenCompose(user -> {
-        PSequence<String> userIds = user.friends.plus(id);
-        LiveChirpsRequest chirpsReq =  new LiveChirpsRequest(userIds);
-        // Note that this stream will not include changes to friend associates,
-        // e.g. adding a new friend.
-        CompletionStage<Source<Chirp, ?>> result = chirpService.getLiveChirps().invoke(chirpsReq);
-        return result;
+  public ServiceCall<String, LiveActivityStreamReq, Source<Chirp, ?>> getLiveActivityStream() {
+    return (id, req) -> followingFriends(id, req, chirpsReq -> chirpService.getLiveChirps().invoke(chirpsReq));
+  }
+
+  @Override
+  public ServiceCall<String, LiveActivityStreamReq, Source<PSequence<Chirp>, ?>> getLiveActivityStreamBatches() {
+    // the chirp service batches the chirps already
+    return (id, req) -> followingFriends(id, req, chirpsReq -> chirpService.getLiveChirpBatches().invoke(chirpsReq));
+  }
+
+  /**
+   * The live chirps of the user and the friends, and of the friends added
+   * while the stream runs. An added friend is one more live chirp stream
+   * merged into the running stream, up to the configured maximum.
+   */
+  private <T> CompletionStage<Source<T, ?>> followingFriends(String userId, LiveActivityStreamReq req,
+      Function<LiveChirpsRequest, CompletionStage<Source<T, ?>>> liveChirps) {
+    // subscribe to the friend changes before looking up the user, so that a
+    // friend added in between is in the user or in the changes; a friend
+    // in both is followed once
+    CompletionStage<Source<FriendId, ?>> friendChanges =
+        friendService.getFriendChanges().invoke(userId, NotUsed.getInstance());
+    // a new stream must include the friends that were just added, a resumed
+    // stream of a reconnect burst may start with a user up to the cache ttl old
+    return friendChanges.thenCompose(changes -> {
+      CompletionStage<User> lookup = req.resumeAfter.isPresent() ? userCache.get(userId) : userCache.getFresh(userId);
+      return lookup.thenCompose(user -> {
+        PSequence<String> userIds = user.friends.plus(userId);
+        CompletionStage<Source<T, ?>> chirps = liveChirps.apply(new LiveChirpsRequest(userIds, req.resumeAfter));
+        return chirps.thenApply(initialChirps -> {
+          Source<T, ?> addedFriendsChirps = changes
+            .<String>statefulMapConcat(() -> {
+              Set<String> followed = new HashSet<>(userIds);
+              return friend -> followed.add(friend.friendId) ?
+                  Collections.singletonList(friend.friendId) : Collections.<String>emptyList();
+            })
+            .take(maxAddedFriends)
+            .mapAsync(1, friendId -> liveChirps.apply(new LiveChirpsRequest(TreePVector.singleton(friendId))))
+            .flatMapMerge(maxAddedFriends, s -> s);
+          return initialChirps.merge(addedFriendsChirps);
+        });
       });
-    };
+    });
   }
 
   @Override
-  public ServiceCall<String, NotUsed, Source<Chirp, ?>> getHistoricalActivityStream() {
+  public ServiceCall<String, HistoricalActivityStreamReq, Source<Chirp, ?>> getHistoricalActivityStream() {
+    if (historyFromTimeline) {
+      // the timeline contains the chirps of the user and the friends, except
+      // those of celebrities which are merged in by the chirp service
+      return (id, req) ->
+        userCache.get(id).thenCompose(user -> {
+          TimelineRequest timelineReq = new TimelineRequest(req.fromTime, req.toTime, req.maxCount,
+              Optional.of(user.friends));
+          return chirpService.getTimeline().invoke(id, timelineReq);
+        });
+    }
     return (id, req) ->
-      friendService.getUser().invoke(id, NotUsed.getInstance()).thenCompose(user -> {
+      userCache.get(id).thenCompose(user -> {
         PSequence<String> userIds = user.friends.plus(id);
-        // FIXME we should use HistoricalActivityStreamReq request parameter
-        Instant fromTime = Instant.now().minus(Duration.ofDays(7));
-        HistoricalChirpsRequest chirpsReq = new HistoricalChirpsRequest(fromTime, userIds);
+        HistoricalChirpsRequest chirpsReq = new HistoricalChirpsRequest(req.fromTime, userIds, req.toTime,
+            req.maxCount, Optional.empty(), Optional.empty());
         CompletionStage<Source<Chirp, ?>> result = chirpService.getHistoricalChirps().invoke(chirpsReq);
         return result;
       });
   }
 
+  @Override
+  public ServiceCall<String, HistoricalActivityStreamReq, ChirpPage> getHistoricalActivityStreamPage() {
+    return (id, req) ->
+      userCache.get(id).thenCompose(user -> {
+        PSequence<String> userIds = user.friends.plus(id);
+        HistoricalChirpsRequest chirpsReq = new HistoricalChirpsRequest(req.fromTime, userIds, req.toTime,
+            Optional.empty(), req.pageSize, req.cursor);
+        return chirpService.getHistoricalChirpsPage().invoke(chirpsReq);
+      });
+  }
+
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.activity.impl;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import akka.NotUsed;
+import play.Configuration;
+import sample.chirper.friend.api.FriendService;
+import sample.chirper.friend.api.User;
+
+/**
+ * Node local cache of the users looked up from the friend service.
+ *
+ * Concurrent lookups of the same user share one friend service call, except
+ * for fresh lookups, which always call the friend service. The users are
+ * cached for a short time after they were looked up, and the least recently
+ * used users are evicted when the cache is full.
+ */
+@Singleton
+public class UserCache {
+
+  private final FriendService friendService;
+  private final ActivityStreamMetrics metrics;
+  private final int maxUsers;
+  private final long ttlNanos;
+
+  // guarded by this
+  private final LinkedHashMap<String, CachedUser> users;
+  private final Map<String, Lookup> inFlight = new HashMap<>();
+  private long lookups = 0;
+
+  @Inject
+  public UserCache(FriendService friendService, ActivityStreamMetrics metrics, Configuration configuration) {
+    this.friendService = friendService;
+    this.metrics = metrics;
+    this.maxUsers = configuration.getInt("activity.user-cache.max-users");
+    this.ttlNanos = configuration.getMilliseconds("activity.user-cache.ttl") * 1000000;
+    this.users = new LinkedHashMap<String, CachedUser>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedUser> eldest) {
+        return size() > maxUsers;
+      }
+    };
+  }
+
+  /**
+   * The user, from the cache if it was looked up recently.
+   */
+  public CompletionStage<User> get(String userId) {
+    synchronized (this) {
+      CachedUser cached = users.get(userId);
+      if (cached != null) {
+        if (System.nanoTime() - cached.loadedAt < ttlNanos) {
+          metrics.userCacheHit();
+          return CompletableFuture.completedFuture(cached.user);
+        }
+        users.remove(userId);
+      }
+    }
+    return lookup(userId, false);
+  }
+
+  /**
+   * The user as the friend service knows it now, bypassing the cache. A
+   * lookup that is in flight may have been answered before this call, so it
+   * isn't joined, the friend service is always called. Later lookups of the
+   * user share this one.
+   */
+  public CompletionStage<User> getFresh(String userId) {
+    return lookup(userId, true);
+  }
+
+  private CompletionStage<User> lookup(String userId, boolean fresh) {
+    Lookup lookup;
+    synchronized (this) {
+      Lookup existing = inFlight.get(userId);
+      if (existing != null && !fresh) {
+        metrics.userLookupCoalesced();
+        return existing.result;
+      }
+      metrics.userCacheMiss();
+      lookup = new Lookup(++lookups);
+      inFlight.put(userId, lookup);
+    }
+    CompletableFuture<User> result = lookup.result;
+    CompletionStage<User> user;
+    try {
+      user = friendService.getUser().invoke(userId, NotUsed.getInstance());
+    } catch (RuntimeException e) {
+      CompletableFuture<User> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      user = failed;
+    }
+    user.whenComplete((u, err) -> {
+      synchronized (this) {
+        inFlight.remove(userId, lookup);
+        // an earlier lookup that completes late doesn't replace a later one
+        CachedUser cached = users.get(userId);
+        if (err == null && (cached == null || cached.lookup < lookup.sequence))
+          users.put(userId, new CachedUser(u, System.nanoTime(), lookup.sequence));
+      }
+      if (err != null)
+        result.completeExceptionally(err instanceof CompletionException && err.getCause() != null ?
+            err.getCause() : err);
+      else
+        result.complete(u);
+    });
+    return result;
+  }
+
+  private static final class Lookup {
+    final long sequence;
+    final CompletableFuture<User> result = new CompletableFuture<>();
+
+    Lookup(long sequence) {
+      this.sequence = sequence;
+    }
+  }
+
+  private static final class CachedUser {
+    final User user;
+    final long loadedAt;
+    final long lookup;
+
+    CachedUser(User user, long loadedAt, long lookup) {
+      this.user = user;
+      this.loadedAt = loadedAt;
+      this.lookup = lookup;
+    }
+  }
+
+}
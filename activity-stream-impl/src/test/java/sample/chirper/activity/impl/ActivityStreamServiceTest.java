@@ -7,16 +7,24 @@ import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.transport.NotFound;
 import com.lightbend.lagom.javadsl.testkit.ServiceTest.Setup;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
+import java.time.Instant;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.inject.Singleton;
 import org.junit.Test;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 import sample.chirper.activity.api.ActivityStreamService;
+import sample.chirper.activity.api.HistoricalActivityStreamReq;
+import sample.chirper.activity.api.LiveActivityStreamReq;
 import sample.chirper.chirp.api.*;
 import sample.chirper.friend.api.*;
 
@@ -31,40 +39,163 @@ public class ActivityStreamServiceTest {
       .withConfigureBuilder(b -> b.overrides(bind(FriendService.class).to(FriendServiceStub.class),
           bind(ChirpService.class).to(ChirpServiceStub.class)));
 
+  private final Setup timelineSetup = defaultSetup().withCluster(false)
+      .withConfigureBuilder(b -> b.configure("activity.history-from-timeline", true)
+          .overrides(bind(FriendService.class).to(FriendServiceStub.class),
+              bind(ChirpService.class).to(ChirpServiceStub.class)));
+
   @Test
   public void shouldGetLiveFeed() throws Exception {
     withServer(setup, server -> {
       ActivityStreamService feedService = server.client(ActivityStreamService.class);
-      Source<Chirp, ?> chirps = feedService.getLiveActivityStream().invoke("usr1", NotUsed.getInstance())
+      Source<Chirp, ?> chirps = feedService.getLiveActivityStream().invoke("usr1", new LiveActivityStreamReq())
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      assertEquals("msg1", probe.expectNext().message);
+      assertEquals("msg2", probe.expectNext().message);
+      probe.cancel();
+    });
+  }
+
+  @Test
+  public void shouldAddChirpsOfNewFriendsToLiveFeed() throws Exception {
+    withServer(setup, server -> {
+      ActivityStreamService feedService = server.client(ActivityStreamService.class);
+      Source<Chirp, ?> chirps = feedService.getLiveActivityStream().invoke("usr3", new LiveActivityStreamReq())
           .toCompletableFuture().get(3, SECONDS);
       Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
       probe.request(10);
+      // usr3 has no friends until usr2 is added
       assertEquals("msg1", probe.expectNext().message);
       assertEquals("msg2", probe.expectNext().message);
       probe.cancel();
     });
   }
 
+  @Test
+  public void shouldResumeLiveFeed() throws Exception {
+    withServer(setup, server -> {
+      ActivityStreamService feedService = server.client(ActivityStreamService.class);
+      Source<Chirp, ?> chirps = feedService.getLiveActivityStream()
+          .invoke("usr1", new LiveActivityStreamReq(Optional.of("msg1-id")))
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      assertEquals("msg2", probe.expectNext().message);
+      probe.cancel();
+
+      LiveChirpsRequest chirpsReq = chirpService(server).liveChirpsRequests.get(0);
+      assertEquals(TreePVector.from(Arrays.asList("usr2", "usr1")), chirpsReq.userIds);
+      assertEquals(Optional.of("msg1-id"), chirpsReq.resumeAfter);
+    });
+  }
+
+  @Test
+  public void shouldGetBatchedLiveFeed() throws Exception {
+    withServer(setup, server -> {
+      ActivityStreamService feedService = server.client(ActivityStreamService.class);
+      Source<PSequence<Chirp>, ?> batches = feedService.getLiveActivityStreamBatches()
+          .invoke("usr1", new LiveActivityStreamReq()).toCompletableFuture().get(3, SECONDS);
+      Probe<PSequence<Chirp>> probe = batches.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      PSequence<Chirp> batch = probe.expectNext();
+      assertEquals(2, batch.size());
+      assertEquals("msg1", batch.get(0).message);
+      assertEquals("msg2", batch.get(1).message);
+      probe.cancel();
+
+      LiveChirpsRequest chirpsReq = chirpService(server).liveChirpsRequests.get(0);
+      assertEquals(TreePVector.from(Arrays.asList("usr2", "usr1")), chirpsReq.userIds);
+      assertEquals(Optional.empty(), chirpsReq.resumeAfter);
+    });
+  }
+
   @Test
   public void shouldGetHistoricalFeed() throws Exception {
     withServer(setup, server -> {
       ActivityStreamService feedService = server.client(ActivityStreamService.class);
-      Source<Chirp, ?> chirps = feedService.getHistoricalActivityStream().invoke("usr1", NotUsed.getInstance())
+      Instant fromTime = Instant.now().minusSeconds(3600);
+      Instant toTime = Instant.now();
+      HistoricalActivityStreamReq req = new HistoricalActivityStreamReq(fromTime, Optional.of(toTime),
+          Optional.of(5), Optional.empty(), Optional.empty());
+      Source<Chirp, ?> chirps = feedService.getHistoricalActivityStream().invoke("usr1", req)
           .toCompletableFuture().get(3, SECONDS);
       Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
       probe.request(10);
       assertEquals("msg1", probe.expectNext().message);
       probe.expectComplete();
+
+      HistoricalChirpsRequest chirpsReq = chirpService(server).historicalChirpsRequests.get(0);
+      assertEquals(TreePVector.from(Arrays.asList("usr2", "usr1")), chirpsReq.userIds);
+      assertEquals(fromTime, chirpsReq.fromTime);
+      assertEquals(Optional.of(toTime), chirpsReq.toTime);
+      assertEquals(Optional.of(5), chirpsReq.maxCount);
     });
   }
 
+  @Test
+  public void shouldGetHistoricalFeedFromTimeline() throws Exception {
+    withServer(timelineSetup, server -> {
+      ActivityStreamService feedService = server.client(ActivityStreamService.class);
+      Instant fromTime = Instant.now().minusSeconds(3600);
+      Instant toTime = Instant.now();
+      HistoricalActivityStreamReq req = new HistoricalActivityStreamReq(fromTime, Optional.of(toTime),
+          Optional.of(5), Optional.empty(), Optional.empty());
+      Source<Chirp, ?> chirps = feedService.getHistoricalActivityStream().invoke("usr1", req)
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      probe.expectComplete();
+
+      ChirpServiceStub chirpService = chirpService(server);
+      assertTrue(chirpService.historicalChirpsRequests.isEmpty());
+      TimelineRequest timelineReq = chirpService.timelineRequests.get(0);
+      assertEquals(fromTime, timelineReq.fromTime);
+      assertEquals(Optional.of(toTime), timelineReq.toTime);
+      assertEquals(Optional.of(5), timelineReq.maxCount);
+      assertEquals(TreePVector.singleton("usr2"), timelineReq.followedUserIds);
+    });
+  }
 
+  @Test
+  public void shouldGetHistoricalFeedPage() throws Exception {
+    withServer(setup, server -> {
+      ActivityStreamService feedService = server.client(ActivityStreamService.class);
+      HistoricalActivityStreamReq req = new HistoricalActivityStreamReq(Instant.now().minusSeconds(3600),
+          Optional.empty(), Optional.empty(), Optional.of(1), Optional.empty());
+      ChirpPage page = feedService.getHistoricalActivityStreamPage().invoke("usr1", req)
+          .toCompletableFuture().get(3, SECONDS);
+      assertEquals(1, page.chirps.size());
+      assertEquals("msg1", page.chirps.get(0).message);
+      assertEquals(Optional.of("next"), page.nextCursor);
+
+      Instant toTime = Instant.now();
+      HistoricalActivityStreamReq nextReq = new HistoricalActivityStreamReq(req.fromTime, Optional.of(toTime),
+          Optional.empty(), Optional.of(1), page.nextCursor);
+      feedService.getHistoricalActivityStreamPage().invoke("usr1", nextReq).toCompletableFuture().get(3, SECONDS);
+
+      List<HistoricalChirpsRequest> chirpsReqs = chirpService(server).historicalChirpsRequests;
+      assertEquals(2, chirpsReqs.size());
+      assertEquals(Optional.of(1), chirpsReqs.get(0).pageSize);
+      assertEquals(Optional.empty(), chirpsReqs.get(0).cursor);
+      assertEquals(req.fromTime, chirpsReqs.get(1).fromTime);
+      assertEquals(Optional.of(toTime), chirpsReqs.get(1).toTime);
+      assertEquals(Optional.of(1), chirpsReqs.get(1).pageSize);
+      assertEquals(Optional.of("next"), chirpsReqs.get(1).cursor);
+    });
+  }
+
+  private static ChirpServiceStub chirpService(TestServer server) {
+    return server.injector().instanceOf(ChirpServiceStub.class);
+  }
 
   static class FriendServiceStub implements FriendService {
 
     private final User usr1 = new User("usr1", "User 1", 
         Optional.of(TreePVector.<String>empty().plus("usr2")));
     private final User usr2 = new User("usr2", "User 2");
+    private final User usr3 = new User("usr3", "User 3");
 
     @Override
     public ServiceCall<String, NotUsed, User> getUser() {
@@ -73,6 +204,8 @@ public class ActivityStreamServiceTest {
           return completedFuture(usr1);
         else if (id.equals(usr2.userId))
           return completedFuture(usr2);
+        else if (id.equals(usr3.userId))
+          return completedFuture(usr3);
         else
           throw new NotFound(id);
       };
@@ -88,6 +221,11 @@ public class ActivityStreamServiceTest {
       return (id, req) -> completedFuture(NotUsed.getInstance());
     }
 
+    @Override
+    public ServiceCall<String, FriendIds, NotUsed> addFriends() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
     @Override
     public ServiceCall<String, NotUsed, PSequence<String>> getFollowers() {
       return (id, req) -> {
@@ -99,10 +237,39 @@ public class ActivityStreamServiceTest {
           throw new NotFound(id);
       };
     }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<String, ?>> getFollowersStream() {
+      return (id, req) -> completedFuture(Source.empty());
+    }
+
+    @Override
+    public ServiceCall<String, FollowersPageRequest, FollowersPage> getFollowersPage() {
+      return (id, req) -> completedFuture(new FollowersPage(TreePVector.empty(), Optional.empty()));
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<FriendId, ?>> getFriendChanges() {
+      return (id, req) -> {
+        if (id.equals(usr3.userId))
+          return completedFuture(Source.single(new FriendId("usr2")));
+        else
+          return completedFuture(Source.empty());
+      };
+    }
   }
 
+  /**
+   * Records the requests it receives, so that the tests can check what the
+   * activity stream service forwards.
+   */
+  @Singleton
   static class ChirpServiceStub implements ChirpService {
 
+    final List<LiveChirpsRequest> liveChirpsRequests = new CopyOnWriteArrayList<>();
+    final List<HistoricalChirpsRequest> historicalChirpsRequests = new CopyOnWriteArrayList<>();
+    final List<TimelineRequest> timelineRequests = new CopyOnWriteArrayList<>();
+
     @Override
     public ServiceCall<String, Chirp, NotUsed> addChirp() {
       return (id, req) -> completedFuture(NotUsed.getInstance());
@@ -111,18 +278,35 @@ public class ActivityStreamServiceTest {
     @Override
     public ServiceCall<NotUsed, LiveChirpsRequest, Source<Chirp, ?>> getLiveChirps() {
       return (id, req) -> {
+        liveChirpsRequests.add(req);
         if (req.userIds.contains("usr2")) {
           Chirp c1 = new Chirp("usr2", "msg1");
           Chirp c2 = new Chirp("usr2", "msg2");
+          if (req.resumeAfter.equals(Optional.of("msg1-id")))
+            return completedFuture(Source.single(c2));
           return completedFuture(Source.from(Arrays.asList(c1, c2)));
         } else
           return completedFuture(Source.empty());
       };
     }
 
+    @Override
+    public ServiceCall<NotUsed, LiveChirpsRequest, Source<PSequence<Chirp>, ?>> getLiveChirpBatches() {
+      return (id, req) -> {
+        liveChirpsRequests.add(req);
+        if (req.userIds.contains("usr2")) {
+          Chirp c1 = new Chirp("usr2", "msg1");
+          Chirp c2 = new Chirp("usr2", "msg2");
+          return completedFuture(Source.<PSequence<Chirp>>single(TreePVector.from(Arrays.asList(c1, c2))));
+        } else
+          return completedFuture(Source.empty());
+      };
+    }
+
     @Override
     public ServiceCall<NotUsed, HistoricalChirpsRequest, Source<Chirp, ?>> getHistoricalChirps() {
       return (id, req) -> {
+        historicalChirpsRequests.add(req);
         if (req.userIds.contains("usr2")) {
           Chirp c1 = new Chirp("usr2", "msg1");
           return completedFuture(Source.single(c1));
@@ -131,5 +315,25 @@ public class ActivityStreamServiceTest {
       };
     }
 
+    @Override
+    public ServiceCall<NotUsed, HistoricalChirpsRequest, ChirpPage> getHistoricalChirpsPage() {
+      return (id, req) -> {
+        historicalChirpsRequests.add(req);
+        if (req.userIds.contains("usr2")) {
+          Chirp c1 = new Chirp("usr2", "msg1");
+          return completedFuture(new ChirpPage(TreePVector.singleton(c1), Optional.of("next")));
+        } else
+          return completedFuture(new ChirpPage(TreePVector.empty(), Optional.empty()));
+      };
+    }
+
+    @Override
+    public ServiceCall<String, TimelineRequest, Source<Chirp, ?>> getTimeline() {
+      return (id, req) -> {
+        timelineRequests.add(req);
+        return completedFuture(Source.empty());
+      };
+    }
+
   }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.activity.impl;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.typesafe.config.ConfigFactory;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+import play.Configuration;
+import sample.chirper.friend.api.FollowersPage;
+import sample.chirper.friend.api.FollowersPageRequest;
+import sample.chirper.friend.api.FriendId;
+import sample.chirper.friend.api.FriendIds;
+import sample.chirper.friend.api.FriendService;
+import sample.chirper.friend.api.User;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+
+public class UserCacheTest {
+
+  private final Configuration configuration = new Configuration(ConfigFactory.parseString(
+      "activity.user-cache.max-users = 2\nactivity.user-cache.ttl = 1 minute"));
+
+  @Test
+  public void shouldShareConcurrentLookups() throws Exception {
+    FriendServiceStub friendService = new FriendServiceStub();
+    ActivityStreamMetrics metrics = new ActivityStreamMetrics();
+    UserCache cache = new UserCache(friendService, metrics, configuration);
+
+    CompletionStage<User> user1 = cache.get("usr1");
+    CompletionStage<User> user2 = cache.get("usr1");
+    assertEquals(1, friendService.lookups.get());
+    friendService.pending.complete(new User("usr1", "User 1"));
+    assertEquals("usr1", user1.toCompletableFuture().get(3, SECONDS).userId);
+    assertEquals("usr1", user2.toCompletableFuture().get(3, SECONDS).userId);
+    assertEquals(1, metrics.getUserLookupsCoalesced());
+  }
+
+  @Test
+  public void shouldNotJoinEarlierLookupsForFreshUsers() throws Exception {
+    FriendServiceStub friendService = new FriendServiceStub();
+    ActivityStreamMetrics metrics = new ActivityStreamMetrics();
+    UserCache cache = new UserCache(friendService, metrics, configuration);
+    CompletableFuture<User> earlier = friendService.pending;
+
+    CompletionStage<User> user1 = cache.get("usr1");
+    // the earlier lookup may have been answered before a friend was added
+    friendService.pending = new CompletableFuture<>();
+    CompletionStage<User> fresh = cache.getFresh("usr1");
+    assertEquals(2, friendService.lookups.get());
+    // later lookups join the fresh one
+    CompletionStage<User> user2 = cache.get("usr1");
+    assertEquals(2, friendService.lookups.get());
+
+    User withFriend = new User("usr1", "User 1", Optional.of(TreePVector.singleton("usr2")));
+    friendService.pending.complete(withFriend);
+    assertEquals(withFriend, fresh.toCompletableFuture().get(3, SECONDS));
+    assertEquals(withFriend, user2.toCompletableFuture().get(3, SECONDS));
+
+    // the earlier lookup completes late, it doesn't replace the cached user
+    earlier.complete(new User("usr1", "User 1"));
+    assertEquals(new User("usr1", "User 1"), user1.toCompletableFuture().get(3, SECONDS));
+    assertEquals(withFriend, cache.get("usr1").toCompletableFuture().get(3, SECONDS));
+    assertEquals(2, friendService.lookups.get());
+  }
+
+  @Test
+  public void shouldServeCachedUsers() throws Exception {
+    FriendServiceStub friendService = new FriendServiceStub();
+    ActivityStreamMetrics metrics = new ActivityStreamMetrics();
+    UserCache cache = new UserCache(friendService, metrics, configuration);
+    friendService.pending.complete(new User("usr1", "User 1"));
+
+    cache.get("usr1").toCompletableFuture().get(3, SECONDS);
+    cache.get("usr1").toCompletableFuture().get(3, SECONDS);
+    assertEquals(1, friendService.lookups.get());
+    assertEquals(1, metrics.getUserCacheHits());
+
+    // a fresh lookup bypasses the cache
+    cache.getFresh("usr1").toCompletableFuture().get(3, SECONDS);
+    assertEquals(2, friendService.lookups.get());
+  }
+
+  @Test
+  public void shouldNotCacheFailedLookups() throws Exception {
+    FriendServiceStub friendService = new FriendServiceStub();
+    UserCache cache = new UserCache(friendService, new ActivityStreamMetrics(), configuration);
+    friendService.pending.completeExceptionally(new IllegalStateException("unavailable"));
+
+    try {
+      cache.get("usr1").toCompletableFuture().get(3, SECONDS);
+      fail("Expected the lookup to fail");
+    } catch (ExecutionException e) {
+      assertEquals("unavailable", e.getCause().getMessage());
+    }
+    friendService.pending = CompletableFuture.completedFuture(new User("usr1", "User 1"));
+    assertEquals("usr1", cache.get("usr1").toCompletableFuture().get(3, SECONDS).userId);
+    assertEquals(2, friendService.lookups.get());
+  }
+
+  static class FriendServiceStub implements FriendService {
+
+    final AtomicInteger lookups = new AtomicInteger();
+    volatile CompletableFuture<User> pending = new CompletableFuture<>();
+
+    @Override
+    public ServiceCall<String, NotUsed, User> getUser() {
+      return (id, req) -> {
+        lookups.incrementAndGet();
+        return pending;
+      };
+    }
+
+    @Override
+    public ServiceCall<NotUsed, User, NotUsed> createUser() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, FriendId, NotUsed> addFriend() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, FriendIds, NotUsed> addFriends() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, PSequence<String>> getFollowers() {
+      return (id, req) -> completedFuture(TreePVector.<String>empty());
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<String, ?>> getFollowersStream() {
+      return (id, req) -> completedFuture(Source.empty());
+    }
+
+    @Override
+    public ServiceCall<String, FollowersPageRequest, FollowersPage> getFollowersPage() {
+      return (id, req) -> completedFuture(new FollowersPage(TreePVector.empty(), Optional.empty()));
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<FriendId, ?>> getFriendChanges() {
+      return (id, req) -> completedFuture(Source.empty());
+    }
+  }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.bench;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+import sample.chirper.chirp.api.ChirpIds;
+
+/**
+ * Compares the creation of random and time-based chirp ids under contention.
+ *
+ * Run with one to 32 threads:
+ * for t in 1 2 4 8 16 32; do sbt "benchmarks/jmh:run -i 10 -wi 5 -f 1 -t $t .*ChirpIdBenchmark.*"; done
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChirpIdBenchmark {
+
+  @Benchmark
+  public UUID randomUuid() {
+    return UUID.randomUUID();
+  }
+
+  @Benchmark
+  public UUID timeBasedId() {
+    return ChirpIds.next();
+  }
+
+}
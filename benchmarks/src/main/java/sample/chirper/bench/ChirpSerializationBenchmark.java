@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.impl.ChirpSerializer;
+
+/**
+ * Compares the binary chirp serializer with Jackson JSON, the format chirps
+ * were published with before. The serialized sizes are printed at setup.
+ *
+ * Run with: sbt "benchmarks/jmh:run -i 10 -wi 5 -f 1 .*ChirpSerializationBenchmark.*"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChirpSerializationBenchmark {
+
+  @Param({ "16", "140" })
+  public int messageLength;
+
+  private final ChirpSerializer binary = new ChirpSerializer();
+  // configured like the Lagom Jackson serializer
+  private final ObjectMapper json = new ObjectMapper()
+    .registerModule(new ParameterNamesModule())
+    .registerModule(new Jdk8Module())
+    .registerModule(new JavaTimeModule())
+    .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
+  private Chirp chirp;
+  private byte[] binaryBytes;
+  private byte[] jsonBytes;
+
+  @Setup
+  public void setup() throws IOException {
+    StringBuilder message = new StringBuilder();
+    while (message.length() < messageLength) {
+      message.append("chirp ");
+    }
+    chirp = new Chirp("user-1234", message.substring(0, messageLength));
+    binaryBytes = binary.toBinary(chirp);
+    jsonBytes = json.writeValueAsBytes(chirp);
+    System.out.println("binary: " + binaryBytes.length + " bytes, json: " + jsonBytes.length + " bytes");
+  }
+
+  @Benchmark
+  public byte[] binaryEncode() {
+    return binary.toBinary(chirp);
+  }
+
+  @Benchmark
+  public Object binaryDecode() {
+    return binary.fromBinary(binaryBytes, "C");
+  }
+
+  @Benchmark
+  public byte[] jsonEncode() throws IOException {
+    return json.writeValueAsBytes(chirp);
+  }
+
+  @Benchmark
+  public Object jsonDecode() throws IOException {
+    return json.readValue(jsonBytes, Chirp.class);
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import sample.chirper.friend.api.User;
+import sample.chirper.friend.impl.FriendEvent.FriendAdded;
+import sample.chirper.friend.impl.FriendState;
+
+/**
+ * Measures the recovery of a user entity with many friends, and the friend
+ * check of its AddFriend command.
+ *
+ * Recovery applies every FriendAdded event to the state, the same as the
+ * entity's event handler. The AddFriend check replays the events as
+ * commands, checking each friend before it is added, the old linear check
+ * of the friend list against the friend set.
+ *
+ * Run with: sbt "benchmarks/jmh:run -i 10 -wi 5 -f 1 .*FriendRecoveryBenchmark.*"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FriendRecoveryBenchmark {
+
+  @Param({ "1000", "10000", "50000" })
+  public int friends;
+
+  private List<FriendAdded> events;
+
+  @Setup
+  public void setup() {
+    events = new ArrayList<>(friends);
+    for (int i = 0; i < friends; i++) {
+      events.add(new FriendAdded("user", "friend-" + i));
+    }
+  }
+
+  private static FriendState created() {
+    return new FriendState(Optional.of(new User("user", "User")));
+  }
+
+  @Benchmark
+  public FriendState recover() {
+    FriendState state = created();
+    for (FriendAdded evt : events) {
+      state = state.addFriend(evt.friendId);
+    }
+    return state;
+  }
+
+  @Benchmark
+  public FriendState addFriendsWithSetCheck() {
+    FriendState state = created();
+    for (FriendAdded evt : events) {
+      if (!state.isFriend(evt.friendId))
+        state = state.addFriend(evt.friendId);
+    }
+    return state;
+  }
+
+  @Benchmark
+  public FriendState addFriendsWithListCheck() {
+    FriendState state = created();
+    for (FriendAdded evt : events) {
+      if (!state.user.get().friends.contains(evt.friendId))
+        state = state.addFriend(evt.friendId);
+    }
+    return state;
+  }
+
+}
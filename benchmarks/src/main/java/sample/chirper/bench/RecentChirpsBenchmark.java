@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.bench;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.impl.TopKChirps;
+
+/**
+ * Compares the selection of the recent chirps a live stream starts with.
+ *
+ * Run with: sbt "benchmarks/jmh:run -i 10 -wi 5 -f 1 .*RecentChirpsBenchmark.*"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecentChirpsBenchmark {
+
+  private static final int LIMIT = 10;
+
+  @Param({ "10", "100", "1000" })
+  public int followedUsers;
+
+  private List<List<Chirp>> chirpsPerUser;
+
+  @Setup
+  public void setup() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long now = System.currentTimeMillis();
+    chirpsPerUser = new ArrayList<>(followedUsers);
+    for (int u = 0; u < followedUsers; u++) {
+      List<Chirp> chirps = new ArrayList<>(LIMIT);
+      for (int c = 0; c < LIMIT; c++) {
+        Instant timestamp = Instant.ofEpochMilli(now - random.nextLong(7 * 24 * 3600 * 1000L));
+        chirps.add(new Chirp("user-" + u, "chirp " + c, Optional.of(timestamp), Optional.empty()));
+      }
+      Collections.sort(chirps, Chirp.TIMESTAMP_ORDER);
+      chirpsPerUser.add(chirps);
+    }
+  }
+
+  private List<CompletionStage<List<Chirp>>> results() {
+    List<CompletionStage<List<Chirp>>> results = new ArrayList<>(followedUsers);
+    for (List<Chirp> chirps : chirpsPerUser) {
+      results.add(CompletableFuture.completedFuture(chirps));
+    }
+    return results;
+  }
+
+  @Benchmark
+  public PSequence<Chirp> thenCombine() {
+    List<CompletionStage<PSequence<Chirp>>> results = new ArrayList<>(followedUsers);
+    for (List<Chirp> chirps : chirpsPerUser) {
+      results.add(CompletableFuture.completedFuture(TreePVector.from(chirps)));
+    }
+
+    CompletionStage<PSequence<Chirp>> combined = null;
+    for (CompletionStage<PSequence<Chirp>> chirpsFromOneUser : results) {
+      if (combined == null) {
+        combined = chirpsFromOneUser;
+      } else {
+        combined = combined.thenCombine(chirpsFromOneUser, (a, b) -> a.plusAll(b));
+      }
+    }
+
+    CompletionStage<PSequence<Chirp>> sortedLimited = combined.thenApply(all -> {
+      List<Chirp> allSorted = new ArrayList<>(all);
+      // reverse order
+      Collections.sort(allSorted, (a, b) -> b.timestamp.compareTo(a.timestamp));
+      List<Chirp> limited = allSorted.stream().limit(LIMIT).collect(Collectors.toList());
+      List<Chirp> reversed = new ArrayList<>(limited);
+      Collections.reverse(reversed);
+      return TreePVector.from(reversed);
+    });
+
+    return sortedLimited.toCompletableFuture().join();
+  }
+
+  @Benchmark
+  public PSequence<Chirp> topK() {
+    return TopKChirps.newest(LIMIT, results()).toCompletableFuture().join();
+  }
+
+}
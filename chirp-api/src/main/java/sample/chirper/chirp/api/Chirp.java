@@ -4,6 +4,7 @@
 package sample.chirper.chirp.api;
 
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -18,6 +19,14 @@ import com.lightbend.lagom.serialization.Jsonable;
 @SuppressWarnings("serial")
 @Immutable
 public final class Chirp implements Jsonable {
+
+  /**
+   * Orders chirps by timestamp, and by uuid for chirps with the same timestamp.
+   * This is the order chirps are stored in within one user's partition.
+   */
+  public static final Comparator<Chirp> TIMESTAMP_ORDER =
+    Comparator.comparing((Chirp c) -> c.timestamp).thenComparing(c -> c.uuid);
+
   public final String userId;
   public final String message;
   public final Instant timestamp;
@@ -31,8 +40,18 @@ public final class Chirp implements Jsonable {
   public Chirp(String userId, String message, Optional<Instant> timestamp, Optional<String> uuid) {
     this.userId = Preconditions.checkNotNull(userId, "userId");
     this.message = Preconditions.checkNotNull(message, "message");
-    this.timestamp = timestamp.orElseGet(() -> Instant.now());
-    this.uuid = uuid.orElseGet(() -> UUID.randomUUID().toString());
+    if (uuid.isPresent()) {
+      this.timestamp = timestamp.orElseGet(() -> Instant.now());
+      this.uuid = uuid.get();
+    } else if (timestamp.isPresent()) {
+      this.timestamp = timestamp.get();
+      this.uuid = ChirpIds.forTimestamp(timestamp.get()).toString();
+    } else {
+      // the timestamp is the one of the id, so that chirps order the same by either
+      UUID id = ChirpIds.next();
+      this.timestamp = Instant.ofEpochMilli(ChirpIds.millis(id));
+      this.uuid = id.toString();
+    }
   }
 
   @Override
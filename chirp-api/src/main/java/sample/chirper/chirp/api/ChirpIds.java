@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.api;
+
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates time-based (version 1) UUIDs for chirps, the same format as the
+ * Cassandra <code>timeuuid</code>.
+ *
+ * The timestamp of an id is its chirp's timestamp in milliseconds, the
+ * sub-millisecond part of the 100ns tick keeps ids unique. The clock
+ * sequence and node are random per JVM, so no locking or shared random
+ * number generator is needed to create an id. Ids for given timestamps that
+ * can't be kept unique that way have a random clock sequence and node.
+ */
+public final class ChirpIds {
+
+  /** 100ns intervals between the UUID epoch (1582-10-15) and the Unix epoch. */
+  private static final long UUID_EPOCH_OFFSET = 0x01B21DD213814000L;
+  private static final long TICKS_PER_MILLI = 10000;
+
+  private static final long CLOCK_SEQ_AND_NODE = randomClockSeqAndNode();
+  private static final AtomicLong lastTicks = new AtomicLong();
+  // kept apart from lastTicks, so that a chirp with a future timestamp doesn't move next() ahead
+  private static final AtomicLong lastGivenTicks = new AtomicLong();
+
+  private ChirpIds() {
+  }
+
+  /**
+   * A new id for the current time, ids created by this JVM are strictly
+   * increasing. When more than 10000 ids are created within a millisecond
+   * their timestamps run ahead of the clock until it catches up.
+   */
+  public static UUID next() {
+    while (true) {
+      long now = System.currentTimeMillis() * TICKS_PER_MILLI + UUID_EPOCH_OFFSET;
+      long last = lastTicks.get();
+      long ticks = now > last ? now : last + 1;
+      if (lastTicks.compareAndSet(last, ticks))
+        return create(ticks);
+    }
+  }
+
+  /**
+   * A new id for a chirp with the given timestamp, the id's timestamp is the
+   * millisecond of the given one. Ids for non-decreasing timestamps are
+   * strictly increasing, up to 10000 ids per millisecond. Further ids of that
+   * millisecond, and ids for a timestamp before the last given one, have a
+   * random clock sequence and node instead.
+   */
+  public static UUID forTimestamp(Instant timestamp) {
+    long base = timestamp.toEpochMilli() * TICKS_PER_MILLI + UUID_EPOCH_OFFSET;
+    while (true) {
+      long last = lastGivenTicks.get();
+      long ticks;
+      if (base > last)
+        ticks = base;
+      else if (last < base + TICKS_PER_MILLI - 1)
+        ticks = last + 1;
+      else
+        break;
+      if (lastGivenTicks.compareAndSet(last, ticks))
+        return create(ticks);
+    }
+    Random random = ThreadLocalRandom.current();
+    return create(base + random.nextInt((int) TICKS_PER_MILLI), randomClockSeqAndNode(random));
+  }
+
+  /**
+   * The timestamp of a time-based id, in milliseconds since the Unix epoch.
+   */
+  public static long millis(UUID id) {
+    if (id.version() != 1)
+      throw new IllegalArgumentException("Not a time-based UUID: " + id);
+    return Math.floorDiv(id.timestamp() - UUID_EPOCH_OFFSET, TICKS_PER_MILLI);
+  }
+
+  public static boolean isTimeBased(String id) {
+    try {
+      return UUID.fromString(id).version() == 1;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private static UUID create(long ticks) {
+    return create(ticks, CLOCK_SEQ_AND_NODE);
+  }
+
+  private static UUID create(long ticks, long clockSeqAndNode) {
+    long msb = (ticks & 0xFFFFFFFFL) << 32 // time_low
+      | ((ticks >>> 32) & 0xFFFFL) << 16 // time_mid
+      | 0x1000L // version 1
+      | ((ticks >>> 48) & 0x0FFFL); // time_hi
+    return new UUID(msb, clockSeqAndNode);
+  }
+
+  private static long randomClockSeqAndNode() {
+    return randomClockSeqAndNode(new SecureRandom());
+  }
+
+  private static long randomClockSeqAndNode(Random generator) {
+    long random = generator.nextLong();
+    long clockSeq = (random >>> 48) & 0x3FFFL;
+    // a random node id must have the multicast bit set, see RFC 4122 4.5
+    long node = (random & 0xFFFFFFFFFFFFL) | 0x010000000000L;
+    return 0x8000000000000000L | clockSeq << 48 | node;
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.api;
+
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.pcollections.PSequence;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * One page of historical chirps, oldest first.
+ *
+ * The next page is requested by passing the <code>nextCursor</code> in the
+ * next request. There are no more chirps when it's empty.
+ */
+@Immutable
+public final class ChirpPage {
+
+  public final PSequence<Chirp> chirps;
+  public final Optional<String> nextCursor;
+
+  @JsonCreator
+  public ChirpPage(PSequence<Chirp> chirps, Optional<String> nextCursor) {
+    this.chirps = Preconditions.checkNotNull(chirps, "chirps");
+    this.nextCursor = Preconditions.checkNotNull(nextCursor, "nextCursor");
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof ChirpPage && equalTo((ChirpPage) another);
+  }
+
+  private boolean equalTo(ChirpPage another) {
+    return chirps.equals(another.chirps) && nextCursor.equals(another.nextCursor);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + chirps.hashCode();
+    h = h * 17 + nextCursor.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("ChirpPage")
+      .add("chirps", chirps)
+      .add("nextCursor", nextCursor)
+      .toString();
+  }
+
+}
@@ -5,10 +5,13 @@ package sample.chirper.chirp.api;
 
 import akka.stream.javadsl.Source;
 
+import org.pcollections.PSequence;
+
 import akka.NotUsed;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
+import com.lightbend.lagom.javadsl.api.transport.Method;
 import static com.lightbend.lagom.javadsl.api.Service.*;
 
 public interface ChirpService extends Service {
@@ -16,16 +19,41 @@ public interface ChirpService extends Service {
   ServiceCall<String, Chirp, NotUsed> addChirp();
   
   ServiceCall<NotUsed, LiveChirpsRequest, Source<Chirp, ?>> getLiveChirps();
+
+  /**
+   * The same chirps as {@link #getLiveChirps()}, grouped into batches of the
+   * chirps that were published within a short time window, one batch per
+   * message.
+   */
+  ServiceCall<NotUsed, LiveChirpsRequest, Source<PSequence<Chirp>, ?>> getLiveChirpBatches();
   
   ServiceCall<NotUsed, HistoricalChirpsRequest, Source<Chirp, ?>> getHistoricalChirps();
 
+  /**
+   * One page of the historical chirps, the request's cursor continues a
+   * previous page.
+   */
+  ServiceCall<NotUsed, HistoricalChirpsRequest, ChirpPage> getHistoricalChirpsPage();
+
+  /**
+   * The home timeline of a user, the chirps of the user and everyone the
+   * user follows, oldest first. Only available when the chirp service fans
+   * out new chirps to the timelines.
+   *
+   * The ID of this service call is the user ID.
+   */
+  ServiceCall<String, TimelineRequest, Source<Chirp, ?>> getTimeline();
+
   @Override
   default Descriptor descriptor() {
     // @formatter:off
     return named("chirpservice").with(
         pathCall("/api/chirps/live/:userId", addChirp()),
         pathCall("/api/chirps/live", getLiveChirps()),
-        pathCall("/api/chirps/history", getHistoricalChirps())
+        pathCall("/api/chirps/live-batched", getLiveChirpBatches()),
+        pathCall("/api/chirps/history", getHistoricalChirps()),
+        restCall(Method.POST, "/api/chirps/history/page", getHistoricalChirpsPage()),
+        pathCall("/api/chirps/timeline/:userId", getTimeline())
       ).withAutoAcl(true);
     // @formatter:on
   }
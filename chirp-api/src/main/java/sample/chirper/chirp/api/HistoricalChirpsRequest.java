@@ -4,6 +4,7 @@
 package sample.chirper.chirp.api;
 
 import java.time.Instant;
+import java.util.Optional;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -11,6 +12,7 @@ import javax.annotation.concurrent.Immutable;
 import org.pcollections.PSequence;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 
 @Immutable
@@ -18,11 +20,37 @@ public final class HistoricalChirpsRequest {
 
   public final Instant fromTime;
   public final PSequence<String> userIds;
+  /**
+   * Only chirps before this time are returned.
+   */
+  public final Optional<Instant> toTime;
+  /**
+   * The maximum number of chirps a history stream returns.
+   */
+  public final Optional<Integer> maxCount;
+  /**
+   * The maximum number of chirps a {@link ChirpPage} returns.
+   */
+  public final Optional<Integer> pageSize;
+  /**
+   * The opaque cursor of a previous {@link ChirpPage}, to continue where that
+   * page ended.
+   */
+  public final Optional<String> cursor;
 
-  @JsonCreator
   public HistoricalChirpsRequest(Instant fromTime, PSequence<String> userIds) {
+    this(fromTime, userIds, Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+  }
+
+  @JsonCreator
+  public HistoricalChirpsRequest(Instant fromTime, PSequence<String> userIds, Optional<Instant> toTime,
+      Optional<Integer> maxCount, Optional<Integer> pageSize, Optional<String> cursor) {
     this.fromTime = Preconditions.checkNotNull(fromTime, "fromTime");
     this.userIds = Preconditions.checkNotNull(userIds, "userIds");
+    this.toTime = Preconditions.checkNotNull(toTime, "toTime");
+    this.maxCount = Preconditions.checkNotNull(maxCount, "maxCount");
+    this.pageSize = Preconditions.checkNotNull(pageSize, "pageSize");
+    this.cursor = Preconditions.checkNotNull(cursor, "cursor");
   }
 
   @Override
@@ -33,7 +61,8 @@ public final class HistoricalChirpsRequest {
   }
 
   private boolean equalTo(HistoricalChirpsRequest another) {
-    return fromTime.equals(another.fromTime) && userIds.equals(another.userIds);
+    return fromTime.equals(another.fromTime) && userIds.equals(another.userIds) && toTime.equals(another.toTime)
+      && maxCount.equals(another.maxCount) && pageSize.equals(another.pageSize) && cursor.equals(another.cursor);
   }
 
   @Override
@@ -41,7 +70,23 @@ public final class HistoricalChirpsRequest {
     int h = 31;
     h = h * 17 + fromTime.hashCode();
     h = h * 17 + userIds.hashCode();
+    h = h * 17 + toTime.hashCode();
+    h = h * 17 + maxCount.hashCode();
+    h = h * 17 + pageSize.hashCode();
+    h = h * 17 + cursor.hashCode();
     return h;
   }
 
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("HistoricalChirpsRequest")
+      .add("fromTime", fromTime)
+      .add("userIds", userIds)
+      .add("toTime", toTime)
+      .add("maxCount", maxCount)
+      .add("pageSize", pageSize)
+      .add("cursor", cursor)
+      .toString();
+  }
+
 }
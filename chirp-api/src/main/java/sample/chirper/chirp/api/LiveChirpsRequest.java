@@ -3,6 +3,8 @@
  */
 package sample.chirper.chirp.api;
 
+import java.util.Optional;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
@@ -17,10 +19,21 @@ import com.google.common.base.Preconditions;
 @JsonDeserialize
 public final class LiveChirpsRequest {
   public final PSequence<String> userIds;
+  /**
+   * The id of the last chirp a client received before it was disconnected.
+   * The resumed stream starts with the chirps after it, instead of the
+   * recent chirps of every user.
+   */
+  public final Optional<String> resumeAfter;
 
-  @JsonCreator
   public LiveChirpsRequest(PSequence<String> userIds) {
+    this(userIds, Optional.empty());
+  }
+
+  @JsonCreator
+  public LiveChirpsRequest(PSequence<String> userIds, Optional<String> resumeAfter) {
      this.userIds = Preconditions.checkNotNull(userIds, "userIds");
+     this.resumeAfter = Preconditions.checkNotNull(resumeAfter, "resumeAfter");
   }
 
   @Override
@@ -31,7 +44,7 @@ public final class LiveChirpsRequest {
   }
 
   private boolean equalTo(LiveChirpsRequest another) {
-    return userIds.equals(another.userIds);
+    return userIds.equals(another.userIds) && resumeAfter.equals(another.resumeAfter);
   }
 
 
@@ -39,6 +52,7 @@ public final class LiveChirpsRequest {
   public int hashCode() {
     int h = 31;
     h = h * 17 + userIds.hashCode();
+    h = h * 17 + resumeAfter.hashCode();
     return h;
   }
 
@@ -47,6 +61,7 @@ public final class LiveChirpsRequest {
   public String toString() {
     return MoreObjects.toStringHelper("LiveChirpsRequest")
         .add("userIds", userIds)
+        .add("resumeAfter", resumeAfter)
         .toString();
   }
 }
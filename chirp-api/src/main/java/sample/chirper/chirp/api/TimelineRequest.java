@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.api;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+@Immutable
+public final class TimelineRequest {
+
+  public final Instant fromTime;
+  /**
+   * Only chirps before this time are returned.
+   */
+  public final Optional<Instant> toTime;
+  /**
+   * The maximum number of chirps to return.
+   */
+  public final Optional<Integer> maxCount;
+  /**
+   * The users the timeline's owner follows. The chirps of the celebrities
+   * among them are not in the timeline and are merged in when it is read.
+   */
+  public final PSequence<String> followedUserIds;
+
+  public TimelineRequest(Instant fromTime, Optional<Instant> toTime, Optional<Integer> maxCount) {
+    this(fromTime, toTime, maxCount, Optional.empty());
+  }
+
+  @JsonCreator
+  public TimelineRequest(Instant fromTime, Optional<Instant> toTime, Optional<Integer> maxCount,
+      Optional<PSequence<String>> followedUserIds) {
+    this.fromTime = Preconditions.checkNotNull(fromTime, "fromTime");
+    this.toTime = Preconditions.checkNotNull(toTime, "toTime");
+    this.maxCount = Preconditions.checkNotNull(maxCount, "maxCount");
+    this.followedUserIds = followedUserIds.orElse(TreePVector.empty());
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof TimelineRequest && equalTo((TimelineRequest) another);
+  }
+
+  private boolean equalTo(TimelineRequest another) {
+    return fromTime.equals(another.fromTime) && toTime.equals(another.toTime) && maxCount.equals(another.maxCount)
+      && followedUserIds.equals(another.followedUserIds);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + fromTime.hashCode();
+    h = h * 17 + toTime.hashCode();
+    h = h * 17 + maxCount.hashCode();
+    h = h * 17 + followedUserIds.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("TimelineRequest")
+      .add("fromTime", fromTime)
+      .add("toTime", toTime)
+      .add("maxCount", maxCount)
+      .add("followedUserIds", followedUserIds)
+      .toString();
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import sample.chirper.chirp.api.ChirpIds;
+
+/**
+ * Encodes the per-user positions of a history page as an opaque cursor.
+ *
+ * The cursor is the base64url encoding of a version byte followed by the
+ * user id and position of the last chirp returned for each user. A position
+ * whose uuid is a time-based id of its timestamp is encoded as the id alone,
+ * other positions as timestamp and uuid.
+ */
+public final class ChirpCursor {
+
+  private static final byte VERSION = 2;
+  private static final byte TIMESTAMP_AND_UUID = 0;
+  private static final byte TIME_BASED_ID = 1;
+
+  private ChirpCursor() {
+  }
+
+  public static String encode(Map<String, ChirpPosition> positions) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(VERSION);
+      out.writeInt(positions.size());
+      for (Map.Entry<String, ChirpPosition> entry : positions.entrySet()) {
+        ChirpPosition position = entry.getValue();
+        out.writeUTF(entry.getKey());
+        Optional<UUID> id = timeBasedId(position);
+        if (id.isPresent()) {
+          out.writeByte(TIME_BASED_ID);
+          out.writeLong(id.get().getMostSignificantBits());
+          out.writeLong(id.get().getLeastSignificantBits());
+        } else {
+          out.writeByte(TIMESTAMP_AND_UUID);
+          out.writeLong(position.timestamp);
+          out.writeUTF(position.uuid);
+        }
+      }
+    } catch (IOException e) {
+      // can't happen with a ByteArrayOutputStream
+      throw new IllegalStateException(e);
+    }
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+  }
+
+  /**
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public static Map<String, ChirpPosition> decode(String cursor) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+      byte version = in.readByte();
+      if (version != 1 && version != VERSION)
+        throw new IllegalArgumentException("Unsupported cursor version " + version);
+      int size = in.readInt();
+      if (size < 0)
+        throw new IllegalArgumentException("Malformed cursor");
+      Map<String, ChirpPosition> positions = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        String userId = in.readUTF();
+        // version 1 cursors only have timestamp and uuid positions
+        byte format = version == 1 ? TIMESTAMP_AND_UUID : in.readByte();
+        if (format == TIME_BASED_ID) {
+          UUID id = new UUID(in.readLong(), in.readLong());
+          if (id.version() != 1)
+            throw new IllegalArgumentException("Malformed cursor");
+          positions.put(userId, new ChirpPosition(ChirpIds.millis(id), id.toString()));
+        } else if (format == TIMESTAMP_AND_UUID) {
+          long timestamp = in.readLong();
+          positions.put(userId, new ChirpPosition(timestamp, in.readUTF()));
+        } else {
+          throw new IllegalArgumentException("Malformed cursor");
+        }
+      }
+      if (in.read() != -1)
+        throw new IllegalArgumentException("Malformed cursor");
+      return Collections.unmodifiableMap(positions);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Malformed cursor", e);
+    }
+  }
+
+  private static Optional<UUID> timeBasedId(ChirpPosition position) {
+    if (!ChirpIds.isTimeBased(position.uuid))
+      return Optional.empty();
+    UUID id = UUID.fromString(position.uuid);
+    // the id alone only restores the position if it has the same timestamp
+    // and string form
+    if (ChirpIds.millis(id) != position.timestamp || !id.toString().equals(position.uuid))
+      return Optional.empty();
+    return Optional.of(id);
+  }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.lightbend.lagom.javadsl.pubsub.PubSubRef;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.Attributes;
+import akka.stream.Materializer;
+import akka.stream.Outlet;
+import akka.stream.SourceShape;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.AsyncCallback;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+import play.Logger;
+import play.Logger.ALogger;
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * Node local fan-out of the chirp topics.
+ *
+ * Chirps are published to one of {@link #MAX_TOPICS} topics, selected by the
+ * hash of the user id. The hub keeps at most one subscription per topic on
+ * this node, for as long as some local live stream follows a user of that
+ * topic, and hands each received chirp only to the live streams that follow
+ * its author.
+ */
+@Singleton
+public class ChirpHub {
+
+  public static final int MAX_TOPICS = 1024;
+
+  // ends the stream of a deactivated topic subscription, compared by identity
+  private static final Chirp STOP = new Chirp("", "");
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final PubSubRegistry topics;
+  private final Materializer materializer;
+  private final RecentChirpCache recentChirps;
+  private final ChirpMetrics metrics;
+  private final int bufferSize;
+  private final ChirpSettings.LiveOverflow overflow;
+  private final int conflateTo;
+
+  // userId -> local live streams that follow that user
+  private final ConcurrentHashMap<String, Set<HubSubscriber>> subscribers = new ConcurrentHashMap<>();
+  // topic qualifier -> subscription to that topic, guarded by this
+  private final Map<String, TopicSubscription> subscriptions = new HashMap<>();
+  // topic subscription streams that haven't terminated yet, active or not
+  private final AtomicInteger runningStreams = new AtomicInteger();
+
+  @Inject
+  public ChirpHub(PubSubRegistry topics, Materializer materializer, RecentChirpCache recentChirps,
+      ChirpMetrics metrics, ChirpSettings settings) {
+    this.topics = topics;
+    this.materializer = materializer;
+    this.recentChirps = recentChirps;
+    this.metrics = metrics;
+    this.bufferSize = settings.liveBufferSize;
+    this.overflow = settings.liveOverflow;
+    this.conflateTo = settings.liveConflateTo;
+  }
+
+  public static String topicQualifier(String userId) {
+    return String.valueOf(Math.abs(userId.hashCode()) % MAX_TOPICS);
+  }
+
+  public void publish(Chirp chirp) {
+    topic(topicQualifier(chirp.userId)).publish(chirp);
+  }
+
+  /**
+   * The live chirps of the given users. The stream buffers a limited number of
+   * chirps for a slow consumer. When the buffer is full, the configured
+   * overflow strategy either drops the oldest chirp, conflates the buffer to
+   * the latest chirps, or fails the stream. Chirps are handed to the streams
+   * asynchronously, so a slow consumer never holds up the topic subscription
+   * or the other streams of this node.
+   */
+  public Source<Chirp, NotUsed> subscribe(Collection<String> userIds) {
+    return Source.fromGraph(new HubSource(new HashSet<>(userIds)));
+  }
+
+  /**
+   * The topic subscription streams that are still running, including those
+   * of deactivated subscriptions that haven't stopped yet.
+   */
+  int runningTopicStreams() {
+    return runningStreams.get();
+  }
+
+  private PubSubRef<Chirp> topic(String qualifier) {
+    return topics.refFor(TopicId.of(Chirp.class, qualifier));
+  }
+
+  private synchronized void register(HubSubscriber subscriber) {
+    for (String userId : subscriber.userIds) {
+      subscribers.computeIfAbsent(userId, u -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+    for (String qualifier : qualifiers(subscriber.userIds)) {
+      TopicSubscription subscription = subscriptions.get(qualifier);
+      if (subscription == null) {
+        subscription = new TopicSubscription(qualifier);
+        subscriptions.put(qualifier, subscription);
+        subscription.start();
+        recentChirps.subscribed(qualifier);
+      }
+      subscription.members.add(subscriber);
+      subscriber.subscriptions.add(subscription);
+    }
+    metrics.liveStreamsChanged(1, subscriptions.size());
+  }
+
+  private synchronized void unregister(HubSubscriber subscriber) {
+    for (String userId : subscriber.userIds) {
+      Set<HubSubscriber> followers = subscribers.get(userId);
+      if (followers != null) {
+        followers.remove(subscriber);
+        if (followers.isEmpty())
+          subscribers.remove(userId);
+      }
+    }
+    // only the subscriptions this subscriber joined, a failed one may have been replaced since
+    for (TopicSubscription subscription : subscriber.subscriptions) {
+      subscription.members.remove(subscriber);
+      if (subscription.members.isEmpty() && subscription.active)
+        deactivate(subscription);
+    }
+    subscriber.subscriptions.clear();
+    metrics.liveStreamsChanged(-1, subscriptions.size());
+  }
+
+  /**
+   * A subscription that ends while it is still active has either failed, or
+   * completed without a reason, in both cases it delivers nothing anymore.
+   */
+  private synchronized void subscriptionEnded(TopicSubscription subscription, Throwable error) {
+    if (!subscription.active)
+      return;
+    log.warn("Subscription to chirp topic " + subscription.qualifier + " ended, due to: " + error.getMessage());
+    deactivate(subscription);
+    // fail the streams that relied on it, clients reconnect and resubscribe
+    for (HubSubscriber subscriber : subscription.members) {
+      subscriber.fail(error);
+    }
+    metrics.liveStreamsChanged(0, subscriptions.size());
+  }
+
+  private void deactivate(TopicSubscription subscription) {
+    subscription.active = false;
+    subscription.stop();
+    if (subscriptions.get(subscription.qualifier) == subscription) {
+      subscriptions.remove(subscription.qualifier);
+      recentChirps.unsubscribed(subscription.qualifier);
+    }
+  }
+
+  private void dispatch(Chirp chirp) {
+    recentChirps.add(chirp);
+    Set<HubSubscriber> followers = subscribers.get(chirp.userId);
+    if (followers != null) {
+      for (HubSubscriber subscriber : followers) {
+        subscriber.offer(chirp);
+      }
+    }
+  }
+
+  private static Set<String> qualifiers(Set<String> userIds) {
+    Set<String> qualifiers = new HashSet<>();
+    for (String userId : userIds) {
+      qualifiers.add(topicQualifier(userId));
+    }
+    return qualifiers;
+  }
+
+  private final class TopicSubscription {
+    final String qualifier;
+    // the live streams that joined this subscription, guarded by ChirpHub.this
+    final Set<HubSubscriber> members = new HashSet<>();
+    volatile boolean active = true;
+    // completed with STOP on deactivation, so that the stream is cancelled
+    // even if no more chirps arrive on the topic
+    private CompletableFuture<Optional<Chirp>> stop;
+
+    TopicSubscription(String qualifier) {
+      this.qualifier = qualifier;
+    }
+
+    void start() {
+      runningStreams.incrementAndGet();
+      Pair<CompletableFuture<Optional<Chirp>>, CompletionStage<Done>> running = Source.<Chirp>maybe()
+        .merge(topic(qualifier).subscriber())
+        .takeWhile(chirp -> chirp != STOP && active)
+        .toMat(Sink.foreach(ChirpHub.this::dispatch), Keep.both())
+        .run(materializer);
+      stop = running.first();
+      running.second().whenComplete((done, err) -> {
+        runningStreams.decrementAndGet();
+        if (err != null)
+          subscriptionEnded(this, err);
+        else
+          subscriptionEnded(this, new IllegalStateException("Subscription completed"));
+      });
+    }
+
+    void stop() {
+      stop.complete(Optional.of(STOP));
+    }
+  }
+
+  private static final class HubSubscriber {
+    final Set<String> userIds;
+    final AsyncCallback<Chirp> onChirp;
+    final AsyncCallback<Throwable> onFailure;
+    // the topic subscriptions this subscriber joined, guarded by ChirpHub.this
+    final List<TopicSubscription> subscriptions = new ArrayList<>();
+
+    HubSubscriber(Set<String> userIds, AsyncCallback<Chirp> onChirp, AsyncCallback<Throwable> onFailure) {
+      this.userIds = userIds;
+      this.onChirp = onChirp;
+      this.onFailure = onFailure;
+    }
+
+    void offer(Chirp chirp) {
+      onChirp.invoke(chirp);
+    }
+
+    void fail(Throwable error) {
+      onFailure.invoke(error);
+    }
+  }
+
+  private final class HubSource extends GraphStage<SourceShape<Chirp>> {
+    private final Set<String> userIds;
+    private final Outlet<Chirp> out = Outlet.create("ChirpHub.out");
+    private final SourceShape<Chirp> shape = new SourceShape<>(out);
+
+    HubSource(Set<String> userIds) {
+      this.userIds = userIds;
+    }
+
+    @Override
+    public SourceShape<Chirp> shape() {
+      return shape;
+    }
+
+    @Override
+    public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+      return new GraphStageLogic(shape) {
+        private final ArrayDeque<Chirp> buffer = new ArrayDeque<>();
+        private HubSubscriber subscriber;
+
+        {
+          setHandler(out, new AbstractOutHandler() {
+            @Override
+            public void onPull() {
+              if (!buffer.isEmpty()) {
+                push(out, buffer.poll());
+                metrics.liveChirpsBuffered(-1);
+              }
+            }
+          });
+        }
+
+        @Override
+        public void preStart() {
+          subscriber = new HubSubscriber(userIds, createAsyncCallback(this::onChirp),
+              createAsyncCallback(this::failStage));
+          register(subscriber);
+        }
+
+        @Override
+        public void postStop() {
+          if (subscriber != null)
+            unregister(subscriber);
+          metrics.liveChirpsBuffered(-buffer.size());
+        }
+
+        private void onChirp(Chirp chirp) {
+          if (isAvailable(out)) {
+            push(out, chirp);
+            return;
+          }
+          buffer.add(chirp);
+          metrics.liveChirpsBuffered(1);
+          if (buffer.size() <= bufferSize)
+            return;
+          switch (overflow) {
+          case DROP_OLDEST:
+            discard(1);
+            break;
+          case CONFLATE:
+            discard(buffer.size() - conflateTo);
+            break;
+          case DISCONNECT:
+            metrics.liveStreamDisconnected();
+            failStage(new IllegalStateException(
+                "Live stream disconnected, it fell more than " + bufferSize + " chirps behind"));
+            break;
+          }
+        }
+
+        private void discard(int chirps) {
+          for (int i = 0; i < chirps; i++) {
+            buffer.poll();
+          }
+          metrics.liveChirpsBuffered(-chirps);
+          metrics.liveChirpsDropped(chirps);
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import play.Logger;
+import play.Logger.ALogger;
+
+/**
+ * Node local counters of the chirp service, registered as a JMX MBean.
+ */
+@Singleton
+public class ChirpMetrics implements ChirpMetricsMBean {
+
+  public static final String OBJECT_NAME = "sample.chirper:type=ChirpMetrics";
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final AtomicInteger inFlightPartitionReads = new AtomicInteger();
+  private final AtomicInteger queuedPartitionReads = new AtomicInteger();
+  private final AtomicLong partitionReads = new AtomicLong();
+  private final AtomicLong multiPartitionReads = new AtomicLong();
+  private final AtomicInteger liveStreams = new AtomicInteger();
+  private final AtomicLong liveStreamsResumed = new AtomicLong();
+  private final AtomicInteger topicSubscriptions = new AtomicInteger();
+  private final AtomicInteger liveChirpsBuffered = new AtomicInteger();
+  private final AtomicLong liveChirpsDropped = new AtomicLong();
+  private final AtomicLong liveStreamsDisconnected = new AtomicLong();
+  private final AtomicLong duplicateChirpsSuppressed = new AtomicLong();
+  private final AtomicLong recentCacheHits = new AtomicLong();
+  private final AtomicLong recentCacheMisses = new AtomicLong();
+  private final AtomicInteger chirpWriteQueueDepth = new AtomicInteger();
+  private final AtomicLong chirpBatchesWritten = new AtomicLong();
+  private final AtomicLong chirpsWritten = new AtomicLong();
+  private final AtomicLong chirpWritesRejected = new AtomicLong();
+  private final AtomicInteger timelineFanoutQueueDepth = new AtomicInteger();
+  private final AtomicLong timelineEntriesWritten = new AtomicLong();
+  private final AtomicLong timelineFanoutLagMillis = new AtomicLong();
+  private final AtomicLong timelineFanoutsDropped = new AtomicLong();
+  private final AtomicLong timelineFanoutFailures = new AtomicLong();
+  private final AtomicLong celebrityChirpsNotPushed = new AtomicLong();
+  private final AtomicLong celebritiesPulled = new AtomicLong();
+
+  @Inject
+  public ChirpMetrics() {
+    register();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      // there is only one service instance per JVM, except in tests
+      if (server.isRegistered(name))
+        server.unregisterMBean(name);
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      log.warn("Failed to register chirp metrics MBean, due to: " + e.getMessage(), e);
+    }
+  }
+
+  public void partitionReadsChanged(int inFlight, int queued) {
+    inFlightPartitionReads.set(inFlight);
+    queuedPartitionReads.set(queued);
+  }
+
+  public void partitionRead() {
+    partitionReads.incrementAndGet();
+  }
+
+  public void multiPartitionRead() {
+    multiPartitionReads.incrementAndGet();
+  }
+
+  public void liveStreamsChanged(int delta, int subscriptions) {
+    liveStreams.addAndGet(delta);
+    topicSubscriptions.set(subscriptions);
+  }
+
+  public void liveStreamResumed() {
+    liveStreamsResumed.incrementAndGet();
+  }
+
+  public void liveChirpsBuffered(int delta) {
+    liveChirpsBuffered.addAndGet(delta);
+  }
+
+  public void liveChirpsDropped(int chirps) {
+    liveChirpsDropped.addAndGet(chirps);
+  }
+
+  public void liveStreamDisconnected() {
+    liveStreamsDisconnected.incrementAndGet();
+  }
+
+  public void duplicateChirpSuppressed() {
+    duplicateChirpsSuppressed.incrementAndGet();
+  }
+
+  public void recentCacheHit() {
+    recentCacheHits.incrementAndGet();
+  }
+
+  public void recentCacheMiss() {
+    recentCacheMisses.incrementAndGet();
+  }
+
+  public void chirpWritesQueued(int queued) {
+    chirpWriteQueueDepth.set(queued);
+  }
+
+  public void chirpBatchWritten(int chirps) {
+    chirpBatchesWritten.incrementAndGet();
+    chirpsWritten.addAndGet(chirps);
+  }
+
+  public void chirpWriteRejected() {
+    chirpWritesRejected.incrementAndGet();
+  }
+
+  public void timelineFanoutQueued(int queued) {
+    timelineFanoutQueueDepth.set(queued);
+  }
+
+  public void timelineBatchWritten(int entries, long lagMillis) {
+    timelineEntriesWritten.addAndGet(entries);
+    timelineFanoutLagMillis.set(lagMillis);
+  }
+
+  public void timelineFanoutDropped() {
+    timelineFanoutsDropped.incrementAndGet();
+  }
+
+  public void timelineFanoutFailed() {
+    timelineFanoutFailures.incrementAndGet();
+  }
+
+  public void celebrityChirpNotPushed() {
+    celebrityChirpsNotPushed.incrementAndGet();
+  }
+
+  public void celebritiesPulled(int celebrities) {
+    celebritiesPulled.addAndGet(celebrities);
+  }
+
+  @Override
+  public int getInFlightPartitionReads() {
+    return inFlightPartitionReads.get();
+  }
+
+  @Override
+  public int getQueuedPartitionReads() {
+    return queuedPartitionReads.get();
+  }
+
+  @Override
+  public long getPartitionReads() {
+    return partitionReads.get();
+  }
+
+  @Override
+  public long getMultiPartitionReads() {
+    return multiPartitionReads.get();
+  }
+
+  @Override
+  public int getLiveStreams() {
+    return liveStreams.get();
+  }
+
+  @Override
+  public long getLiveStreamsResumed() {
+    return liveStreamsResumed.get();
+  }
+
+  @Override
+  public int getTopicSubscriptions() {
+    return topicSubscriptions.get();
+  }
+
+  @Override
+  public int getLiveChirpsBuffered() {
+    return liveChirpsBuffered.get();
+  }
+
+  @Override
+  public long getLiveChirpsDropped() {
+    return liveChirpsDropped.get();
+  }
+
+  @Override
+  public long getLiveStreamsDisconnected() {
+    return liveStreamsDisconnected.get();
+  }
+
+  @Override
+  public long getDuplicateChirpsSuppressed() {
+    return duplicateChirpsSuppressed.get();
+  }
+
+  @Override
+  public long getRecentCacheHits() {
+    return recentCacheHits.get();
+  }
+
+  @Override
+  public long getRecentCacheMisses() {
+    return recentCacheMisses.get();
+  }
+
+  @Override
+  public int getChirpWriteQueueDepth() {
+    return chirpWriteQueueDepth.get();
+  }
+
+  @Override
+  public long getChirpBatchesWritten() {
+    return chirpBatchesWritten.get();
+  }
+
+  @Override
+  public long getChirpsWritten() {
+    return chirpsWritten.get();
+  }
+
+  @Override
+  public long getChirpWritesRejected() {
+    return chirpWritesRejected.get();
+  }
+
+  @Override
+  public int getTimelineFanoutQueueDepth() {
+    return timelineFanoutQueueDepth.get();
+  }
+
+  @Override
+  public long getTimelineEntriesWritten() {
+    return timelineEntriesWritten.get();
+  }
+
+  @Override
+  public long getTimelineFanoutLagMillis() {
+    return timelineFanoutLagMillis.get();
+  }
+
+  @Override
+  public long getTimelineFanoutsDropped() {
+    return timelineFanoutsDropped.get();
+  }
+
+  @Override
+  public long getTimelineFanoutFailures() {
+    return timelineFanoutFailures.get();
+  }
+
+  @Override
+  public long getCelebrityChirpsNotPushed() {
+    return celebrityChirpsNotPushed.get();
+  }
+
+  @Override
+  public long getCelebritiesPulled() {
+    return celebritiesPulled.get();
+  }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+/**
+ * The metrics of the chirp service, exposed over JMX as
+ * <code>sample.chirper:type=ChirpMetrics</code>.
+ */
+public interface ChirpMetricsMBean {
+
+  /** Partition reads for historical chirps that are currently executing. */
+  int getInFlightPartitionReads();
+
+  /** Partition reads for historical chirps that are waiting for a free slot. */
+  int getQueuedPartitionReads();
+
+  /** Total number of partition reads for historical chirps. */
+  long getPartitionReads();
+
+  /** Total number of multi-partition reads for historical chirps. */
+  long getMultiPartitionReads();
+
+  /** Live chirp streams that are currently connected to this node. */
+  int getLiveStreams();
+
+  /** Total number of live streams that resumed after a chirp instead of starting over. */
+  long getLiveStreamsResumed();
+
+  /** Chirp topics that this node is currently subscribed to. */
+  int getTopicSubscriptions();
+
+  /** Chirps currently buffered for live streams that don't keep up, in total. */
+  int getLiveChirpsBuffered();
+
+  /** Total number of chirps dropped because a live stream consumed too slowly. */
+  long getLiveChirpsDropped();
+
+  /** Total number of live streams failed because they consumed too slowly. */
+  long getLiveStreamsDisconnected();
+
+  /** Total number of duplicate chirps that were not sent to live streams. */
+  long getDuplicateChirpsSuppressed();
+
+  /** Total number of recent chirp lookups that were served from the cache. */
+  long getRecentCacheHits();
+
+  /** Total number of recent chirp lookups that had to read Cassandra. */
+  long getRecentCacheMisses();
+
+  /** Chirps waiting to be written to the chirp table. */
+  int getChirpWriteQueueDepth();
+
+  /** Total number of chirp batches written. */
+  long getChirpBatchesWritten();
+
+  /** Total number of chirps written in batches. */
+  long getChirpsWritten();
+
+  /** Total number of chirps rejected because the write queue was full. */
+  long getChirpWritesRejected();
+
+  /** Written chirps waiting for their followers to be looked up for timeline fan-out. */
+  int getTimelineFanoutQueueDepth();
+
+  /** Total number of timeline entries written by the fan-out. */
+  long getTimelineEntriesWritten();
+
+  /** Time between the oldest chirp of the last written timeline batch and its write. */
+  long getTimelineFanoutLagMillis();
+
+  /** Total number of chirps not fanned out because the fan-out queue was full. */
+  long getTimelineFanoutsDropped();
+
+  /** Total number of failed follower lookups and timeline batch writes. */
+  long getTimelineFanoutFailures();
+
+  /** Total number of celebrity chirps that were not pushed to the timelines of their followers. */
+  long getCelebrityChirpsNotPushed();
+
+  /** Total number of celebrity histories pulled into timeline reads. */
+  long getCelebritiesPulled();
+
+}
@@ -7,10 +7,12 @@ import com.google.inject.AbstractModule;
 import com.lightbend.lagom.javadsl.server.ServiceGuiceSupport;
 
 import sample.chirper.chirp.api.ChirpService;
+import sample.chirper.friend.api.FriendService;
 
 public class ChirpModule extends AbstractModule implements ServiceGuiceSupport {
   @Override
   protected void configure() {
     bindServices(serviceBinding(ChirpService.class, ChirpServiceImpl.class));
+    bindClient(FriendService.class);
   }
 }
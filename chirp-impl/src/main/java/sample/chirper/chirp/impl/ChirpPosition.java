@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.Optional;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpIds;
+
+/**
+ * The position of a chirp within its user's partition, reads that resume
+ * from a position return the chirps after it.
+ */
+@Immutable
+public final class ChirpPosition {
+
+  public final long timestamp;
+  public final String uuid;
+
+  public ChirpPosition(long timestamp, String uuid) {
+    this.timestamp = timestamp;
+    this.uuid = Preconditions.checkNotNull(uuid, "uuid");
+  }
+
+  public static ChirpPosition of(Chirp chirp) {
+    return new ChirpPosition(chirp.timestamp.toEpochMilli(), chirp.uuid);
+  }
+
+  /**
+   * The position of the chirp with the given id, which is only known for
+   * time-based ids.
+   */
+  public static Optional<ChirpPosition> ofId(String id) {
+    if (!ChirpIds.isTimeBased(id))
+      return Optional.empty();
+    return Optional.of(new ChirpPosition(ChirpIds.millis(UUID.fromString(id)), id));
+  }
+
+  /**
+   * Whether this position comes after the other one in the order of the
+   * chirp table.
+   */
+  public boolean isAfter(ChirpPosition other) {
+    return timestamp > other.timestamp || (timestamp == other.timestamp && uuid.compareTo(other.uuid) > 0);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof ChirpPosition && equalTo((ChirpPosition) another);
+  }
+
+  private boolean equalTo(ChirpPosition another) {
+    return timestamp == another.timestamp && uuid.equals(another.uuid);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + Long.hashCode(timestamp);
+    h = h * 17 + uuid.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("ChirpPosition")
+      .add("timestamp", timestamp)
+      .add("uuid", uuid)
+      .toString();
+  }
+
+}
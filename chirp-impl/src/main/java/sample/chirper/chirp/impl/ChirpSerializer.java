@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static sample.chirper.utils.CompactBinary.unzigzag;
+import static sample.chirper.utils.CompactBinary.varintSize;
+import static sample.chirper.utils.CompactBinary.zigzag;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import akka.serialization.SerializerWithStringManifest;
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.utils.CompactBinary.Reader;
+import sample.chirper.utils.CompactBinary.Writer;
+
+/**
+ * Compact binary serializer for chirps sent between the nodes, bound in
+ * <code>akka.actor.serialization-bindings</code>. The JSON of the service
+ * API is not affected.
+ *
+ * Layout: a flags byte, the user id and message as varint length and UTF-8
+ * bytes, the timestamp as zigzag varint epoch millis followed by the varint
+ * nanos within the milli if there are any, and the uuid as two longs if it
+ * is a canonical UUID, as varint length and UTF-8 bytes otherwise.
+ */
+public class ChirpSerializer extends SerializerWithStringManifest {
+
+  private static final String CHIRP_MANIFEST = "C";
+
+  private static final int FLAG_UUID_AS_LONGS = 1;
+  private static final int FLAG_SUB_MILLI_NANOS = 2;
+
+  @Override
+  public int identifier() {
+    return 20160401;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof Chirp)
+      return CHIRP_MANIFEST;
+    else
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    if (!(o instanceof Chirp))
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    Chirp chirp = (Chirp) o;
+    byte[] userId = chirp.userId.getBytes(StandardCharsets.UTF_8);
+    byte[] message = chirp.message.getBytes(StandardCharsets.UTF_8);
+    long millis = chirp.timestamp.toEpochMilli();
+    int nanos = chirp.timestamp.getNano() % 1000000;
+    UUID uuid = canonicalUuid(chirp.uuid);
+    byte[] uuidString = uuid == null ? chirp.uuid.getBytes(StandardCharsets.UTF_8) : null;
+
+    int flags = (uuid != null ? FLAG_UUID_AS_LONGS : 0) | (nanos != 0 ? FLAG_SUB_MILLI_NANOS : 0);
+    int size = 1 + varintSize(userId.length) + userId.length + varintSize(message.length) + message.length
+        + varintSize(zigzag(millis)) + (nanos != 0 ? varintSize(nanos) : 0)
+        + (uuid != null ? 16 : varintSize(uuidString.length) + uuidString.length);
+
+    Writer out = new Writer(size);
+    out.writeByte(flags);
+    out.writeBytes(userId);
+    out.writeBytes(message);
+    out.writeVarint(zigzag(millis));
+    if (nanos != 0)
+      out.writeVarint(nanos);
+    if (uuid != null) {
+      out.writeLong(uuid.getMostSignificantBits());
+      out.writeLong(uuid.getLeastSignificantBits());
+    } else {
+      out.writeBytes(uuidString);
+    }
+    return out.bytes;
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) {
+    if (!CHIRP_MANIFEST.equals(manifest))
+      throw new IllegalArgumentException("Unknown manifest " + manifest);
+    Reader in = new Reader(bytes, "chirp");
+    int flags = in.readByte();
+    String userId = in.readString();
+    String message = in.readString();
+    long millis = unzigzag(in.readVarint());
+    int nanos = (flags & FLAG_SUB_MILLI_NANOS) != 0 ? (int) in.readVarint() : 0;
+    String uuid;
+    if ((flags & FLAG_UUID_AS_LONGS) != 0)
+      uuid = new UUID(in.readLong(), in.readLong()).toString();
+    else
+      uuid = in.readString();
+    Instant timestamp = Instant.ofEpochMilli(millis).plusNanos(nanos);
+    return new Chirp(userId, message, Optional.of(timestamp), Optional.of(uuid));
+  }
+
+  /**
+   * The uuid as UUID, if its string form is restored exactly from the UUID.
+   */
+  private static UUID canonicalUuid(String uuid) {
+    if (uuid.length() != 36)
+      return null;
+    try {
+      UUID parsed = UUID.fromString(uuid);
+      return parsed.toString().equals(uuid) ? parsed : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+}
@@ -3,62 +3,75 @@
  */
 package sample.chirper.chirp.impl;
 
-import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 
-import com.datastax.driver.core.Row;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
-import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
-import com.lightbend.lagom.javadsl.pubsub.PubSubRef;
-import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
-import com.lightbend.lagom.javadsl.pubsub.TopicId;
 
 import akka.Done;
 import akka.NotUsed;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Flow;
 import akka.stream.javadsl.Source;
 import play.Logger;
 import play.Logger.ALogger;
 import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpPage;
 import sample.chirper.chirp.api.ChirpService;
 import sample.chirper.chirp.api.HistoricalChirpsRequest;
 import sample.chirper.chirp.api.LiveChirpsRequest;
+import sample.chirper.chirp.api.TimelineRequest;
+import scala.concurrent.duration.FiniteDuration;
 
 public class ChirpServiceImpl implements ChirpService {
 
-  private static final int MAX_TOPICS = 1024;
-  private final PubSubRegistry topics;
-  private final CassandraSession db;
+  private final ChirpHub hub;
+  private final ChirpTable table;
+  private final ChirpWriter chirpWriter;
+  private final TimelineFanout timelineFanout;
+  private final HistoryFetcher historyFetcher;
+  private final RecentChirpCache recentChirpCache;
+  private final ChirpSettings settings;
+  private final ChirpMetrics metrics;
+  private final Materializer materializer;
   private final ALogger log = Logger.of(getClass());
 
   @Inject
-  public ChirpServiceImpl(PubSubRegistry topics, CassandraSession db) {
-    this.topics = topics;
-    this.db = db;
-    createTable();
-  }
-
-  private void createTable() {
-    // @formatter:off
-    CompletionStage<Done> result = db.executeCreateTable(
-        "CREATE TABLE IF NOT EXISTS chirp ("
-        + "userId text, timestamp bigint, uuid text, message text, "
-        + "PRIMARY KEY (userId, timestamp, uuid))");
-    // @formatter:on
+  public ChirpServiceImpl(ChirpHub hub, ChirpTable table, ChirpTableMigration migration,
+      ChirpWriter chirpWriter, TimelineFanout timelineFanout, HistoryFetcher historyFetcher,
+      RecentChirpCache recentChirpCache, ChirpSettings settings, ChirpMetrics metrics, Materializer materializer) {
+    this.hub = hub;
+    this.table = table;
+    this.chirpWriter = chirpWriter;
+    this.timelineFanout = timelineFanout;
+    this.historyFetcher = historyFetcher;
+    this.recentChirpCache = recentChirpCache;
+    this.settings = settings;
+    this.metrics = metrics;
+    this.materializer = materializer;
+    createTable(migration);
+  }
+
+  private void createTable(ChirpTableMigration migration) {
+    CompletionStage<Done> result = table.createTables();
     result.whenComplete((ok, err) -> {
       if (err != null) {
         log.error("Failed to create chirp table, due to: " + err.getMessage(), err);
+      } else if (settings.storageMigrate) {
+        migration.migrateIfNeeded();
       }
     });
   }
@@ -68,97 +81,198 @@ public class ChirpServiceImpl implements ChirpService {
     return (userId, chirp) -> {
       if (!userId.equals(chirp.userId))
         throw new IllegalArgumentException("UserId " + userId + " did not match userId in " + chirp);
-      PubSubRef<Chirp> topic = topics.refFor(TopicId.of(Chirp.class, topicQualifier(userId)));
-      topic.publish(chirp);
-      CompletionStage<NotUsed> result =
-        db.executeWrite("INSERT INTO chirp (userId, uuid, timestamp, message) VALUES (?, ?, ?, ?)",
-          chirp.userId, chirp.uuid, chirp.timestamp.toEpochMilli(),
-          chirp.message).thenApply(done -> NotUsed.getInstance());
+      // only chirps that were written are published and cached
+      CompletionStage<NotUsed> result = chirpWriter.write(chirp).thenApply(done -> {
+        hub.publish(chirp);
+        recentChirpCache.add(chirp);
+        timelineFanout.fanOut(chirp);
+        return NotUsed.getInstance();
+      });
       return result;
     };
   }
 
-  private String topicQualifier(String userId) {
-    return String.valueOf(Math.abs(userId.hashCode()) % MAX_TOPICS);
+  private Flow<Chirp, Chirp, NotUsed> deduplicate() {
+    return Deduplicate.flow((Chirp c) -> c.uuid, settings.liveDedupMaxEntries, settings.liveDedupWindow,
+        metrics::duplicateChirpSuppressed);
   }
 
   @Override
   public ServiceCall<NotUsed, LiveChirpsRequest, Source<Chirp, ?>> getLiveChirps() {
+    return (id, req) -> liveChirps(req);
+  }
+
+  @Override
+  public ServiceCall<NotUsed, LiveChirpsRequest, Source<PSequence<Chirp>, ?>> getLiveChirpBatches() {
+    FiniteDuration maxDelay = FiniteDuration.create(settings.liveBatchMaxDelay.toNanos(), TimeUnit.NANOSECONDS);
     return (id, req) -> {
-      return recentChirps(req.userIds).thenApply(recentChirps -> {
-        List<Source<Chirp, ?>> sources = new ArrayList<>();
-        for (String userId : req.userIds) {
-          PubSubRef<Chirp> topic = topics.refFor(TopicId.of(Chirp.class, topicQualifier(userId)));
-          sources.add(topic.subscriber());
-        }
-        HashSet<String> users = new HashSet<>(req.userIds);
-        Source<Chirp, ?> publishedChirps = Source.from(sources).flatMapMerge(sources.size(), s -> s)
-          .filter(c -> users.contains(c.userId));
-
-        // We currently ignore the fact that it is possible to get duplicate chirps
-        // from the recent and the topic. That can be solved with a de-duplication stage.
-        return Source.from(recentChirps).concat(publishedChirps);
+      return liveChirps(req).thenApply(chirps -> {
+        Source<PSequence<Chirp>, ?> batches = chirps
+          .groupedWithin(settings.liveBatchMaxSize, maxDelay)
+          .<PSequence<Chirp>>map(TreePVector::from);
+        return batches;
       });
     };
   }
 
+  private CompletionStage<Source<Chirp, ?>> liveChirps(LiveChirpsRequest req) {
+    // a stream can only be resumed after a chirp with a time-based id, other
+    // clients start over with the recent chirps
+    Optional<ChirpPosition> resumeAfter = req.resumeAfter.flatMap(ChirpPosition::ofId);
+    if (resumeAfter.isPresent())
+      metrics.liveStreamResumed();
+    // The initial chirps are read when the stream runs, after the hub
+    // registered the stream on materialization, so that the chirps published
+    // during the read are buffered by the hub instead of being missed.
+    Source<Chirp, ?> initialChirps = Source.single(req.userIds)
+      .mapAsync(1, userIds -> {
+        if (resumeAfter.isPresent())
+          return chirpsAfter(userIds, resumeAfter.get());
+        else
+          return recentChirps(userIds);
+      })
+      .mapConcat(chirps -> chirps);
+    Source<Chirp, ?> publishedChirps = hub.subscribe(req.userIds);
+
+    // A chirp can be both in the initial chirps and in the topic.
+    Source<Chirp, ?> result = initialChirps.concat(publishedChirps).via(deduplicate());
+    return CompletableFuture.completedFuture(result);
+  }
+
   @Override
   public ServiceCall<NotUsed, HistoricalChirpsRequest, Source<Chirp, ?>> getHistoricalChirps() {
     return (id, req) -> {
-      List<Source<Chirp, ?>> sources = new ArrayList<>();
-      for (String userId : req.userIds) {
-          Source<Chirp, NotUsed> select = db
-            .select("SELECT * FROM chirp WHERE userId = ? AND timestamp >= ? ORDER BY timestamp ASC", userId,
-                req.fromTime.toEpochMilli())
-            .map(this::mapChirp);
-        sources.add(select);
+      Source<Chirp, ?> result;
+      if (req.maxCount.isPresent()) {
+        int maxCount = req.maxCount.get();
+        if (maxCount < 1)
+          throw new IllegalArgumentException("maxCount must be positive, but was " + maxCount);
+        // no user can contribute more than maxCount chirps
+        result = history(req, Math.min(maxCount, settings.historyPageSize)).take(maxCount);
+      } else {
+        result = history(req, settings.historyPageSize);
+      }
+      return CompletableFuture.completedFuture(result);
+    };
+  }
+
+  @Override
+  public ServiceCall<NotUsed, HistoricalChirpsRequest, ChirpPage> getHistoricalChirpsPage() {
+    return (id, req) -> {
+      int pageSize = pageSize(req);
+      // one chirp more than the page tells whether there is a next page
+      return history(req, Math.min(pageSize + 1, settings.historyPageSize))
+        .take(pageSize + 1)
+        .runFold(TreePVector.<Chirp>empty(), (chirps, chirp) -> chirps.plus(chirp), materializer)
+        .thenApply(chirps -> {
+          if (chirps.size() <= pageSize)
+            return new ChirpPage(chirps, Optional.empty());
+          PSequence<Chirp> page = chirps.subList(0, pageSize);
+          Map<String, ChirpPosition> positions = new LinkedHashMap<>(cursorPositions(req));
+          for (Chirp chirp : page) {
+            positions.put(chirp.userId, ChirpPosition.of(chirp));
+          }
+          return new ChirpPage(page, Optional.of(ChirpCursor.encode(positions)));
+        });
+    };
+  }
+
+  @Override
+  public ServiceCall<String, TimelineRequest, Source<Chirp, ?>> getTimeline() {
+    return (userId, req) -> {
+      if (!timelineFanout.isEnabled())
+        throw new IllegalStateException("Timelines are not enabled, see chirp.timeline.enabled");
+      Source<Chirp, ?> result;
+      if (req.maxCount.isPresent()) {
+        int maxCount = req.maxCount.get();
+        if (maxCount < 1)
+          throw new IllegalArgumentException("maxCount must be positive, but was " + maxCount);
+        result = timeline(userId, req, Math.min(maxCount, settings.historyPageSize)).take(maxCount);
+      } else {
+        result = timeline(userId, req, settings.historyPageSize);
       }
-        // Chirps from one user are ordered by timestamp, but chirps from different
-        // users are not ordered. That can be improved by implementing a smarter
-        // merge that takes the timestamps into account.
-      Source<Chirp, ?> result = Source.from(sources).flatMapMerge(sources.size(), s -> s);
       return CompletableFuture.completedFuture(result);
     };
   }
 
-  private Chirp mapChirp(Row row) {
-    return new Chirp(row.getString("userId"), row.getString("message"), 
-        Optional.of(Instant.ofEpochMilli(row.getLong("timestamp"))), Optional.of(row.getString("uuid")));
+  private Source<Chirp, NotUsed> timeline(String userId, TimelineRequest req, int readSize) {
+    table.checkHistoryFrom(req.fromTime);
+    // chirps pushed before their author became a celebrity are also pulled
+    return historyFetcher.timeline(userId, req.followedUserIds, req.fromTime, req.toTime, readSize)
+      .via(deduplicate());
+  }
+
+  private Source<Chirp, NotUsed> history(HistoricalChirpsRequest req, int readSize) {
+    table.checkHistoryFrom(req.fromTime);
+    return historyFetcher.history(req.userIds, req.fromTime, req.toTime, cursorPositions(req), readSize);
+  }
+
+  private Map<String, ChirpPosition> cursorPositions(HistoricalChirpsRequest req) {
+    return req.cursor.map(ChirpCursor::decode).orElse(Collections.emptyMap());
+  }
+
+  private int pageSize(HistoricalChirpsRequest req) {
+    int pageSize = req.pageSize.orElse(settings.historyDefaultResultPageSize);
+    if (pageSize < 1 || pageSize > settings.historyMaxResultPageSize)
+      throw new IllegalArgumentException(
+          "pageSize must be between 1 and " + settings.historyMaxResultPageSize + ", but was " + pageSize);
+    return pageSize;
   }
 
   private CompletionStage<PSequence<Chirp>> recentChirps(PSequence<String> userIds) {
-    int limit = 10;
-    PSequence<CompletionStage<PSequence<Chirp>>> results = TreePVector.empty();
+    int limit = settings.recentChirps;
+    List<CompletionStage<List<Chirp>>> results = new ArrayList<>(userIds.size());
     for (String userId : userIds) {
-      CompletionStage<PSequence<Chirp>> result = db
-          .selectAll("SELECT * FROM chirp WHERE userId = ? ORDER BY timestamp DESC LIMIT ?", userId, limit)
-          .thenApply(rows -> {
-            List<Chirp> chirps = rows.stream().map(this::mapChirp).collect(Collectors.toList());
-            return TreePVector.from(chirps);
-          });
-      results = results.plus(result);
+      Optional<List<Chirp>> cached = recentChirpCache.get(userId);
+      if (cached.isPresent()) {
+        results.add(CompletableFuture.completedFuture(cached.get()));
+      } else {
+        RecentChirpCache.Load load = recentChirpCache.startLoad(userId);
+        results.add(table.readRecent(userId, limit).handle((chirps, err) -> {
+          if (err != null) {
+            recentChirpCache.abandonLoad(load);
+            throw err instanceof CompletionException ? (CompletionException) err : new CompletionException(err);
+          }
+          // includes the chirps added during the read
+          return recentChirpCache.completeLoad(load, chirps);
+        }));
+      }
     }
+    return TopKChirps.newest(limit, results);
+  }
 
-    CompletionStage<PSequence<Chirp>> combined = null;
-    for (CompletionStage<PSequence<Chirp>> chirpsFromOneUser : results) {
-      if (combined == null) {
-        combined = chirpsFromOneUser;
+  /**
+   * The chirps after the position, at most the newest
+   * <code>chirp.live.resume-max-chirps</code> of them. The recent chirp cache
+   * is used for the users whose cached chirps reach back to the position.
+   */
+  private CompletionStage<PSequence<Chirp>> chirpsAfter(PSequence<String> userIds, ChirpPosition position) {
+    int limit = settings.liveResumeMaxChirps;
+    List<CompletionStage<List<Chirp>>> results = new ArrayList<>(userIds.size());
+    for (String userId : userIds) {
+      Optional<List<Chirp>> cached = recentChirpCache.get(userId);
+      if (cached.isPresent() && reachesBackTo(cached.get(), position)) {
+        results.add(CompletableFuture.completedFuture(after(cached.get(), position)));
       } else {
-        combined = combined.thenCombine(chirpsFromOneUser, (a, b) -> a.plusAll(b));
+        results.add(table.readRecent(userId, limit).thenApply(chirps -> after(chirps, position)));
       }
     }
+    return TopKChirps.newest(limit, results);
+  }
 
-    CompletionStage<PSequence<Chirp>> sortedLimited = combined.thenApply(all -> {
-      List<Chirp> allSorted = new ArrayList<>(all);
-      // reverse order
-      Collections.sort(allSorted, (a, b) -> b.timestamp.compareTo(a.timestamp));
-      List<Chirp> limited = allSorted.stream().limit(limit).collect(Collectors.toList());
-      List<Chirp> reversed = new ArrayList<>(limited);
-      Collections.reverse(reversed);
-      return TreePVector.from(reversed);
-    });
+  private boolean reachesBackTo(List<Chirp> recentChirps, ChirpPosition position) {
+    // fewer chirps than the cache keeps are all chirps of the user
+    return recentChirps.size() < settings.recentChirps
+        || !ChirpPosition.of(recentChirps.get(0)).isAfter(position);
+  }
 
-    return sortedLimited;
+  private static List<Chirp> after(List<Chirp> chirps, ChirpPosition position) {
+    List<Chirp> result = new ArrayList<>(chirps.size());
+    for (Chirp chirp : chirps) {
+      if (ChirpPosition.of(chirp).isAfter(position))
+        result.add(chirp);
+    }
+    return result;
   }
 
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.time.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import play.Configuration;
+
+/**
+ * The <code>chirp</code> section of the service configuration.
+ */
+@Singleton
+public class ChirpSettings {
+
+  /**
+   * What a live stream does when its buffer is full.
+   */
+  public enum LiveOverflow {
+    DROP_OLDEST, CONFLATE, DISCONNECT
+  }
+
+  public final int historyMaxConcurrentReads;
+  public final int historyPartitionsPerRead;
+  public final int historyPageSize;
+  public final int historyDefaultResultPageSize;
+  public final int historyMaxResultPageSize;
+  public final int recentChirps;
+  public final int recentCacheMaxAuthors;
+  public final Duration recentCacheUnsubscribedTtl;
+  public final Duration recentCacheSubscriptionSettleTime;
+  public final int liveBufferSize;
+  public final LiveOverflow liveOverflow;
+  public final int liveConflateTo;
+  public final int liveBatchMaxSize;
+  public final int liveResumeMaxChirps;
+  public final Duration liveBatchMaxDelay;
+  public final int writeBatchSize;
+  public final Duration writeLinger;
+  public final int writeQueueDepth;
+  public final int writeParallelism;
+  public final int liveDedupMaxEntries;
+  public final Duration liveDedupWindow;
+  public final boolean storageBucketed;
+  public final Duration storageBucketSize;
+  public final Duration storageRecentLookback;
+  public final Duration storageHistoryMaxLookback;
+  public final int storageMaxBucketsPerRead;
+  public final boolean storageMigrate;
+  public final boolean timelineEnabled;
+  public final Duration timelineTtl;
+  public final int timelineFollowerLookups;
+  public final int timelineBatchSize;
+  public final Duration timelineLinger;
+  public final int timelineWritesPerSecond;
+  public final int timelineParallelism;
+  public final int timelineQueueDepth;
+  public final int timelineCelebrityThreshold;
+
+  @Inject
+  public ChirpSettings(Configuration configuration) {
+    Configuration chirp = configuration.getConfig("chirp");
+    this.historyMaxConcurrentReads = chirp.getInt("history.max-concurrent-reads");
+    this.historyPartitionsPerRead = chirp.getInt("history.partitions-per-read");
+    this.historyPageSize = chirp.getInt("history.page-size");
+    this.historyDefaultResultPageSize = chirp.getInt("history.default-result-page-size");
+    this.historyMaxResultPageSize = chirp.getInt("history.max-result-page-size");
+    this.recentChirps = chirp.getInt("live.recent-chirps");
+    this.recentCacheMaxAuthors = chirp.getInt("recent-cache.max-authors");
+    this.recentCacheUnsubscribedTtl = Duration.ofMillis(chirp.getMilliseconds("recent-cache.unsubscribed-ttl"));
+    this.recentCacheSubscriptionSettleTime = Duration.ofMillis(
+        chirp.getMilliseconds("recent-cache.subscription-settle-time"));
+    this.liveBufferSize = chirp.getInt("live.buffer-size");
+    this.liveBatchMaxSize = chirp.getInt("live.batch.max-size");
+    this.liveResumeMaxChirps = chirp.getInt("live.resume-max-chirps");
+    this.liveBatchMaxDelay = Duration.ofMillis(chirp.getMilliseconds("live.batch.max-delay"));
+    String overflow = chirp.getString("live.overflow-strategy");
+    switch (overflow) {
+    case "drop-oldest":
+      this.liveOverflow = LiveOverflow.DROP_OLDEST;
+      break;
+    case "conflate":
+      this.liveOverflow = LiveOverflow.CONFLATE;
+      break;
+    case "disconnect":
+      this.liveOverflow = LiveOverflow.DISCONNECT;
+      break;
+    default:
+      throw new IllegalArgumentException(
+          "chirp.live.overflow-strategy must be drop-oldest, conflate or disconnect, but was " + overflow);
+    }
+    this.liveConflateTo = chirp.getInt("live.conflate-to");
+    if (liveConflateTo < 0 || liveConflateTo > liveBufferSize)
+      throw new IllegalArgumentException(
+          "chirp.live.conflate-to must be between 0 and chirp.live.buffer-size, but was " + liveConflateTo);
+    this.writeBatchSize = chirp.getInt("write-behind.batch-size");
+    this.writeLinger = Duration.ofMillis(chirp.getMilliseconds("write-behind.linger"));
+    this.writeQueueDepth = chirp.getInt("write-behind.queue-depth");
+    this.writeParallelism = chirp.getInt("write-behind.parallelism");
+    this.liveDedupMaxEntries = chirp.getInt("live.dedup.max-entries");
+    this.liveDedupWindow = Duration.ofMillis(chirp.getMilliseconds("live.dedup.window"));
+    String layout = chirp.getString("storage.layout");
+    if (!layout.equals("single") && !layout.equals("bucketed"))
+      throw new IllegalArgumentException("chirp.storage.layout must be single or bucketed, but was " + layout);
+    this.storageBucketed = layout.equals("bucketed");
+    this.storageBucketSize = Duration.ofMillis(chirp.getMilliseconds("storage.bucket-size"));
+    this.storageRecentLookback = Duration.ofMillis(chirp.getMilliseconds("storage.recent-lookback"));
+    this.storageHistoryMaxLookback = Duration.ofMillis(chirp.getMilliseconds("storage.history-max-lookback"));
+    this.storageMaxBucketsPerRead = chirp.getInt("storage.max-buckets-per-read");
+    if (storageMaxBucketsPerRead < 1)
+      throw new IllegalArgumentException(
+          "chirp.storage.max-buckets-per-read must be at least 1, but was " + storageMaxBucketsPerRead);
+    this.storageMigrate = chirp.getBoolean("storage.migrate");
+    this.timelineEnabled = chirp.getBoolean("timeline.enabled");
+    this.timelineTtl = Duration.ofMillis(chirp.getMilliseconds("timeline.ttl"));
+    this.timelineFollowerLookups = chirp.getInt("timeline.follower-lookups");
+    this.timelineBatchSize = chirp.getInt("timeline.batch-size");
+    this.timelineLinger = Duration.ofMillis(chirp.getMilliseconds("timeline.linger"));
+    this.timelineWritesPerSecond = chirp.getInt("timeline.writes-per-second");
+    this.timelineParallelism = chirp.getInt("timeline.parallelism");
+    this.timelineQueueDepth = chirp.getInt("timeline.queue-depth");
+    this.timelineCelebrityThreshold = chirp.getInt("timeline.celebrity-threshold");
+  }
+
+}
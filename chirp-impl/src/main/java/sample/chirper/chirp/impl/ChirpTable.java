@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.datastax.driver.core.Row;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * The table the chirps are stored in, in one of two layouts.
+ *
+ * In the <code>single</code> layout, table <code>chirp</code>, all chirps of a
+ * user are stored in one partition. In the <code>bucketed</code> layout, table
+ * <code>chirp_bucketed</code>, the chirps of a user are partitioned by time
+ * bucket, so that the partitions of prolific users stay bounded. Reads walk
+ * the buckets and stop as soon as they have found enough chirps. The first
+ * query of a walk reads one bucket, each further query twice as many buckets
+ * as the one before, up to <code>chirp.storage.max-buckets-per-read</code>, so
+ * that an active user is read with one query and a quiet one with a few.
+ * Historical reads may reach back at most
+ * <code>chirp.storage.history-max-lookback</code>, which bounds the queries of
+ * one walk.
+ */
+@Singleton
+public class ChirpTable {
+
+  public static final String SINGLE_TABLE = "chirp";
+  public static final String BUCKETED_TABLE = "chirp_bucketed";
+
+  private final CassandraSession db;
+  private final boolean bucketed;
+  private final long bucketMillis;
+  private final long recentLookbackBuckets;
+  private final long historyLookbackBuckets;
+  private final Duration historyMaxLookback;
+  private final int maxBucketsPerRead;
+  private final int partitionsPerRead;
+
+  @Inject
+  public ChirpTable(CassandraSession db, ChirpSettings settings) {
+    this.db = db;
+    this.bucketed = settings.storageBucketed;
+    this.bucketMillis = settings.storageBucketSize.toMillis();
+    this.recentLookbackBuckets = Math.max(1, settings.storageRecentLookback.toMillis() / bucketMillis);
+    this.historyLookbackBuckets = Math.max(1, settings.storageHistoryMaxLookback.toMillis() / bucketMillis);
+    this.historyMaxLookback = settings.storageHistoryMaxLookback;
+    this.maxBucketsPerRead = settings.storageMaxBucketsPerRead;
+    this.partitionsPerRead = bucketed ? 1 : settings.historyPartitionsPerRead;
+  }
+
+  public boolean isBucketed() {
+    return bucketed;
+  }
+
+  public CompletionStage<Done> createTables() {
+    // @formatter:off
+    if (bucketed) {
+      return db.executeCreateTable(
+          "CREATE TABLE IF NOT EXISTS " + BUCKETED_TABLE + " ("
+          + "userId text, bucket bigint, timestamp bigint, uuid text, message text, "
+          + "PRIMARY KEY ((userId, bucket), timestamp, uuid))");
+    } else {
+      return db.executeCreateTable(
+          "CREATE TABLE IF NOT EXISTS " + SINGLE_TABLE + " ("
+          + "userId text, timestamp bigint, uuid text, message text, "
+          + "PRIMARY KEY (userId, timestamp, uuid))");
+    }
+    // @formatter:on
+  }
+
+  public String insertStatement() {
+    if (bucketed)
+      return "INSERT INTO " + BUCKETED_TABLE + " (userId, bucket, timestamp, uuid, message) VALUES (?, ?, ?, ?, ?)";
+    else
+      return "INSERT INTO " + SINGLE_TABLE + " (userId, timestamp, uuid, message) VALUES (?, ?, ?, ?)";
+  }
+
+  /**
+   * The values to bind to the {@link #insertStatement()}.
+   */
+  public Object[] insertValues(Chirp chirp) {
+    long timestamp = chirp.timestamp.toEpochMilli();
+    if (bucketed)
+      return new Object[] { chirp.userId, bucket(timestamp), timestamp, chirp.uuid, chirp.message };
+    else
+      return new Object[] { chirp.userId, timestamp, chirp.uuid, chirp.message };
+  }
+
+  /**
+   * Identifies the partition the chirp is stored in.
+   */
+  public String partitionKey(Chirp chirp) {
+    if (bucketed)
+      return chirp.userId + "/" + bucket(chirp.timestamp.toEpochMilli());
+    else
+      return chirp.userId;
+  }
+
+  /**
+   * Reject historical reads from a time before the history lookback of the
+   * bucketed layout. The single layout reads any range with one query.
+   */
+  public void checkHistoryFrom(Instant from) {
+    if (bucketed && bucket(from.toEpochMilli()) < oldestHistoryBucket())
+      throw new IllegalArgumentException("Chirps can be read at most " + historyMaxLookback.toDays()
+          + " days back, but fromTime was " + from);
+  }
+
+  private long oldestHistoryBucket() {
+    return bucket(System.currentTimeMillis()) - historyLookbackBuckets;
+  }
+
+  /**
+   * The number of users whose history is best read with one
+   * {@link #readMultiPartition multi-partition read}. The bucketed layout
+   * reads the buckets of one user at a time, so it is 1 then.
+   */
+  public int partitionsPerRead() {
+    return partitionsPerRead;
+  }
+
+  /**
+   * The first chirps from <code>from</code> (inclusive) until <code>to</code>
+   * (exclusive) of all the users, at most <code>limit</code> in total. The
+   * chirps are returned one user after the other, the chirps of each user
+   * oldest first. The bucketed layout reads the users one after the other.
+   */
+  public CompletionStage<List<Chirp>> readMultiPartition(List<String> userIds, long from, long to, int limit) {
+    if (bucketed)
+      return readPartitionsAscending(userIds, 0, from, to, limit, new ArrayList<>());
+    return db.selectAll("SELECT * FROM " + SINGLE_TABLE
+        + " WHERE userId IN ? AND timestamp >= ? AND timestamp < ? LIMIT ?",
+        userIds, from, to, limit).thenApply(ChirpTable::toChirps);
+  }
+
+  /**
+   * The chirps of the user from <code>from</code> (inclusive) until
+   * <code>to</code> (exclusive) and after the <code>after</code> position,
+   * oldest first, at most <code>limit</code>.
+   */
+  public CompletionStage<List<Chirp>> readPage(String userId, long from, long to,
+      Optional<ChirpPosition> resumeAfter, int limit) {
+    // a position before from doesn't restrict the read any further
+    Optional<ChirpPosition> after = resumeAfter.filter(position -> position.timestamp >= from);
+    if (bucketed) {
+      long start = after.isPresent() ? after.get().timestamp : from;
+      long lastBucket = Math.min(bucket(System.currentTimeMillis()), bucket(to - 1));
+      // requests are checked up front, this only bounds the walk of unchecked ones
+      long firstBucket = Math.max(bucket(start), oldestHistoryBucket());
+      return readBucketsAscending(userId, firstBucket, lastBucket, from, to, after, limit, 1, new ArrayList<>());
+    } else if (after.isPresent()) {
+      ChirpPosition last = after.get();
+      // single and multi-column restrictions can't be mixed on clustering columns
+      return db.selectAll("SELECT * FROM " + SINGLE_TABLE
+          + " WHERE userId = ? AND (timestamp, uuid) > (?, ?) AND (timestamp) < (?)"
+          + " ORDER BY timestamp ASC LIMIT ?",
+          userId, last.timestamp, last.uuid, to, limit).thenApply(ChirpTable::toChirps);
+    } else {
+      return db.selectAll("SELECT * FROM " + SINGLE_TABLE
+          + " WHERE userId = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp ASC LIMIT ?",
+          userId, from, to, limit).thenApply(ChirpTable::toChirps);
+    }
+  }
+
+  /**
+   * The newest chirps of the user, oldest first, at most <code>limit</code>.
+   */
+  public CompletionStage<List<Chirp>> readRecent(String userId, int limit) {
+    CompletionStage<List<Chirp>> newestFirst;
+    if (bucketed) {
+      long newest = bucket(System.currentTimeMillis());
+      newestFirst = readBucketsDescending(userId, newest, newest - recentLookbackBuckets, limit, 1,
+          new ArrayList<>());
+    } else {
+      newestFirst = db.selectAll("SELECT * FROM " + SINGLE_TABLE
+          + " WHERE userId = ? ORDER BY timestamp DESC LIMIT ?", userId, limit).thenApply(ChirpTable::toChirps);
+    }
+    return newestFirst.thenApply(chirps -> {
+      Collections.reverse(chirps);
+      return chirps;
+    });
+  }
+
+  private CompletionStage<List<Chirp>> readPartitionsAscending(List<String> userIds, int index, long from,
+      long to, int limit, List<Chirp> found) {
+    if (found.size() >= limit || index >= userIds.size())
+      return CompletableFuture.completedFuture(found);
+    return readPage(userIds.get(index), from, to, Optional.empty(), limit - found.size()).thenCompose(chirps -> {
+      found.addAll(chirps);
+      return readPartitionsAscending(userIds, index + 1, from, to, limit, found);
+    });
+  }
+
+  private CompletionStage<List<Chirp>> readBucketsAscending(String userId, long bucket, long lastBucket, long from,
+      long to, Optional<ChirpPosition> after, int limit, int buckets, List<Chirp> found) {
+    if (found.size() >= limit || bucket > lastBucket)
+      return CompletableFuture.completedFuture(found);
+    long end = Math.min(lastBucket, bucket + buckets - 1);
+    CompletionStage<List<Chirp>> chirps;
+    if (after.isPresent()) {
+      // the chirps of the buckets after the position's bucket are all after it
+      ChirpPosition last = after.get();
+      chirps = readBuckets(userId, bucket, end, false, limit - found.size(),
+          " AND (timestamp, uuid) > (?, ?) AND (timestamp) < (?)", last.timestamp, last.uuid, to);
+    } else {
+      chirps = readBuckets(userId, bucket, end, false, limit - found.size(),
+          " AND timestamp >= ? AND timestamp < ?", from, to);
+    }
+    return chirps.thenCompose(page -> {
+      found.addAll(page);
+      return readBucketsAscending(userId, end + 1, lastBucket, from, to, after, limit, moreBuckets(buckets), found);
+    });
+  }
+
+  private CompletionStage<List<Chirp>> readBucketsDescending(String userId, long bucket, long oldestBucket,
+      int limit, int buckets, List<Chirp> found) {
+    if (found.size() >= limit || bucket < oldestBucket)
+      return CompletableFuture.completedFuture(found);
+    long start = Math.max(oldestBucket, bucket - buckets + 1);
+    return readBuckets(userId, start, bucket, true, limit - found.size(), "").thenCompose(page -> {
+      found.addAll(page);
+      return readBucketsDescending(userId, start - 1, oldestBucket, limit, moreBuckets(buckets), found);
+    });
+  }
+
+  private int moreBuckets(int buckets) {
+    return Math.min(maxBucketsPerRead, buckets * 2);
+  }
+
+  /**
+   * The chirps of the user in the buckets from <code>first</code> until
+   * <code>last</code> (both inclusive) that match the restriction, oldest or
+   * newest first, at most <code>limit</code>. The rows of several buckets are
+   * returned one partition after the other, so they are sorted here.
+   */
+  private CompletionStage<List<Chirp>> readBuckets(String userId, long first, long last, boolean newestFirst,
+      int limit, String restriction, Object... values) {
+    List<Object> bindings = new ArrayList<>();
+    bindings.add(userId);
+    if (first == last) {
+      bindings.add(first);
+      bindings.addAll(Arrays.asList(values));
+      bindings.add(limit);
+      return db.selectAll("SELECT * FROM " + BUCKETED_TABLE + " WHERE userId = ? AND bucket = ?" + restriction
+          + " ORDER BY timestamp " + (newestFirst ? "DESC" : "ASC") + " LIMIT ?", bindings.toArray())
+        .thenApply(ChirpTable::toChirps);
+    }
+    bindings.add(LongStream.rangeClosed(first, last).boxed().collect(Collectors.toList()));
+    bindings.addAll(Arrays.asList(values));
+    return db.selectAll("SELECT * FROM " + BUCKETED_TABLE + " WHERE userId = ? AND bucket IN ?" + restriction,
+        bindings.toArray()).thenApply(rows -> {
+          List<Chirp> chirps = toChirps(rows);
+          chirps.sort(newestFirst ? Chirp.TIMESTAMP_ORDER.reversed() : Chirp.TIMESTAMP_ORDER);
+          return chirps.size() > limit ? new ArrayList<>(chirps.subList(0, limit)) : chirps;
+        });
+  }
+
+  long bucket(long timestamp) {
+    return Math.floorDiv(timestamp, bucketMillis);
+  }
+
+  static List<Chirp> toChirps(List<Row> rows) {
+    return rows.stream().map(ChirpTable::toChirp).collect(Collectors.toList());
+  }
+
+  static Chirp toChirp(Row row) {
+    return new Chirp(row.getString("userId"), row.getString("message"),
+        Optional.of(Instant.ofEpochMilli(row.getLong("timestamp"))), Optional.of(row.getString("uuid")));
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import akka.stream.Materializer;
+import play.Logger;
+import play.Logger.ALogger;
+
+/**
+ * Copies the chirps of the single table layout into the bucketed table.
+ *
+ * The migration runs when the bucketed layout is enabled together with
+ * <code>chirp.storage.migrate</code>. New chirps are written to the bucketed
+ * table only, and existing chirps show up in reads as they are copied. The
+ * copy is idempotent, so it is safe when several nodes run it, and it is
+ * recorded in the <code>chirp_migration</code> table so that it only runs
+ * until it has completed once.
+ */
+@Singleton
+public class ChirpTableMigration {
+
+  private static final String MIGRATION = "single-to-bucketed";
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final CassandraSession db;
+  private final ChirpTable table;
+  private final Materializer materializer;
+  private final int parallelism;
+
+  @Inject
+  public ChirpTableMigration(CassandraSession db, ChirpTable table, Materializer materializer,
+      ChirpSettings settings) {
+    this.db = db;
+    this.table = table;
+    this.materializer = materializer;
+    this.parallelism = settings.writeParallelism;
+  }
+
+  /**
+   * Run the migration if it is needed, the returned stage completes when it's done.
+   */
+  public CompletionStage<Done> migrateIfNeeded() {
+    if (!table.isBucketed())
+      return CompletableFuture.completedFuture(Done.getInstance());
+    // @formatter:off
+    return db.executeCreateTable(
+        "CREATE TABLE IF NOT EXISTS chirp_migration ("
+        + "name text, completed timestamp, migrated bigint, "
+        + "PRIMARY KEY (name))")
+      .thenCompose(done -> db.selectOne("SELECT * FROM chirp_migration WHERE name = ?", MIGRATION))
+      .thenCompose(row -> {
+        if (row.isPresent())
+          return CompletableFuture.completedFuture(Done.getInstance());
+        else
+          return migrate();
+      });
+    // @formatter:on
+  }
+
+  private CompletionStage<Done> migrate() {
+    log.info("Migrating chirps from table " + ChirpTable.SINGLE_TABLE + " to " + ChirpTable.BUCKETED_TABLE);
+    AtomicLong migrated = new AtomicLong();
+    String insert = table.insertStatement();
+    return db.prepare(insert).thenCompose(ps ->
+      db.select("SELECT * FROM " + ChirpTable.SINGLE_TABLE)
+        .map(ChirpTable::toChirp)
+        .mapAsyncUnordered(parallelism, chirp -> db.executeWrite(ps.bind(table.insertValues(chirp))))
+        .runForeach(done -> {
+          long n = migrated.incrementAndGet();
+          if (n % 10000 == 0)
+            log.info("Migrated " + n + " chirps");
+        }, materializer))
+      .thenCompose(done -> db.executeWrite(
+          "INSERT INTO chirp_migration (name, completed, migrated) VALUES (?, toTimestamp(now()), ?)",
+          MIGRATION, migrated.get()))
+      .whenComplete((done, err) -> {
+        if (err != null)
+          log.error("Migration of chirps failed after " + migrated.get() + " chirps, due to: " + err.getMessage(),
+              err);
+        else
+          log.info("Migration of chirps completed, " + migrated.get() + " chirps migrated");
+      });
+  }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import akka.actor.ActorRef;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import play.Logger;
+import play.Logger.ALogger;
+import sample.chirper.chirp.api.Chirp;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Writes chirps to the chirp table in micro-batches.
+ *
+ * Chirps are queued and grouped for at most the linger time or until a batch
+ * is full. The chirps of one batch are written with one unlogged batch
+ * statement per partition. The stage returned by {@link #write(Chirp)}
+ * completes when the batch containing the chirp has been written. Writes are
+ * rejected when the queue is full.
+ */
+@Singleton
+public class ChirpWriter {
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final CassandraSession db;
+  private final ChirpTable table;
+  private final ChirpMetrics metrics;
+  private final int queueDepth;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicReference<CompletionStage<PreparedStatement>> insertChirp = new AtomicReference<>();
+  private final ActorRef queue;
+
+  @Inject
+  public ChirpWriter(CassandraSession db, ChirpTable table, Materializer materializer,
+      ChirpSettings settings, ChirpMetrics metrics) {
+    this.db = db;
+    this.table = table;
+    this.metrics = metrics;
+    this.queueDepth = settings.writeQueueDepth;
+    FiniteDuration linger = FiniteDuration.create(settings.writeLinger.toNanos(), TimeUnit.NANOSECONDS);
+    // the queued counter makes sure that the buffer never overflows
+    this.queue = Source.<PendingWrite>actorRef(queueDepth, OverflowStrategy.dropNew())
+      .groupedWithin(settings.writeBatchSize, linger)
+      .mapAsyncUnordered(settings.writeParallelism, this::writeBatch)
+      .to(Sink.ignore())
+      .run(materializer);
+  }
+
+  public CompletionStage<Done> write(Chirp chirp) {
+    PendingWrite write = new PendingWrite(chirp);
+    if (queued.incrementAndGet() > queueDepth) {
+      metrics.chirpWritesQueued(queued.decrementAndGet());
+      metrics.chirpWriteRejected();
+      write.done.completeExceptionally(
+          new IllegalStateException("Too many chirps waiting to be written, " + queueDepth + " are queued"));
+    } else {
+      metrics.chirpWritesQueued(queued.get());
+      queue.tell(write, ActorRef.noSender());
+    }
+    return write.done;
+  }
+
+  private CompletionStage<Done> writeBatch(List<PendingWrite> writes) {
+    metrics.chirpWritesQueued(queued.addAndGet(-writes.size()));
+    metrics.chirpBatchWritten(writes.size());
+    return insertChirp().thenCompose(insert -> {
+      Map<String, List<PendingWrite>> byPartition = new LinkedHashMap<>();
+      for (PendingWrite write : writes) {
+        byPartition.computeIfAbsent(table.partitionKey(write.chirp), k -> new ArrayList<>()).add(write);
+      }
+      List<CompletableFuture<Done>> results = new ArrayList<>(byPartition.size());
+      for (List<PendingWrite> partition : byPartition.values()) {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (PendingWrite write : partition) {
+          batch.add(insert.bind(table.insertValues(write.chirp)));
+        }
+        results.add(db.executeWriteBatch(batch).whenComplete((done, err) -> {
+          for (PendingWrite write : partition) {
+            if (err != null)
+              write.done.completeExceptionally(err);
+            else
+              write.done.complete(done);
+          }
+        }).toCompletableFuture());
+      }
+      return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]));
+    }).handle((ok, err) -> {
+      if (err != null) {
+        log.warn("Failed to write " + writes.size() + " chirps, due to: " + err.getMessage());
+        // fails the writes that weren't completed by their partition already
+        for (PendingWrite write : writes) {
+          write.done.completeExceptionally(err);
+        }
+      }
+      // the failure is reported to the writers, the stream must not fail
+      return Done.getInstance();
+    });
+  }
+
+  private CompletionStage<PreparedStatement> insertChirp() {
+    CompletionStage<PreparedStatement> existing = insertChirp.get();
+    if (existing != null)
+      return existing;
+    CompletionStage<PreparedStatement> prepared = db.prepare(table.insertStatement());
+    insertChirp.set(prepared);
+    // a failed prepare, e.g. before the table was created, is retried with the next batch
+    prepared.whenComplete((ps, err) -> {
+      if (err != null)
+        insertChirp.compareAndSet(prepared, null);
+    });
+    return prepared;
+  }
+
+  private static final class PendingWrite {
+    final Chirp chirp;
+    final CompletableFuture<Done> done = new CompletableFuture<>();
+
+    PendingWrite(Chirp chirp) {
+      this.chirp = chirp;
+    }
+  }
+
+}
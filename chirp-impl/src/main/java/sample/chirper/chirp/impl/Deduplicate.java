@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import akka.NotUsed;
+import akka.stream.Attributes;
+import akka.stream.FlowShape;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.javadsl.Flow;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+
+/**
+ * Drops elements whose key has already been seen.
+ *
+ * The seen keys are remembered for at most <code>window</code>, and never more
+ * than <code>maxEntries</code> of them, the oldest keys are forgotten first.
+ * A duplicate that arrives after its key was forgotten is passed through.
+ */
+public final class Deduplicate<T, K> extends GraphStage<FlowShape<T, T>> {
+
+  private final Function<T, K> key;
+  private final int maxEntries;
+  private final long windowNanos;
+  private final Runnable onDuplicate;
+
+  private final Inlet<T> in = Inlet.create("Deduplicate.in");
+  private final Outlet<T> out = Outlet.create("Deduplicate.out");
+  private final FlowShape<T, T> shape = FlowShape.of(in, out);
+
+  public Deduplicate(Function<T, K> key, int maxEntries, Duration window, Runnable onDuplicate) {
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("maxEntries must be at least 1, was " + maxEntries);
+    this.key = key;
+    this.maxEntries = maxEntries;
+    this.windowNanos = window.toNanos();
+    this.onDuplicate = onDuplicate;
+  }
+
+  public static <T, K> Flow<T, T, NotUsed> flow(Function<T, K> key, int maxEntries, Duration window,
+      Runnable onDuplicate) {
+    return Flow.fromGraph(new Deduplicate<T, K>(key, maxEntries, window, onDuplicate));
+  }
+
+  @Override
+  public FlowShape<T, T> shape() {
+    return shape;
+  }
+
+  @Override
+  public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+    return new GraphStageLogic(shape) {
+      // key -> time it was first seen, in insertion order
+      private final LinkedHashMap<K, Long> seen = new LinkedHashMap<>();
+
+      {
+        setHandler(in, new AbstractInHandler() {
+          @Override
+          public void onPush() {
+            T elem = grab(in);
+            long now = System.nanoTime();
+            expire(now);
+            K k = key.apply(elem);
+            if (seen.containsKey(k)) {
+              onDuplicate.run();
+              pull(in);
+            } else {
+              seen.put(k, now);
+              if (seen.size() > maxEntries)
+                expireEldest();
+              push(out, elem);
+            }
+          }
+        });
+
+        setHandler(out, new AbstractOutHandler() {
+          @Override
+          public void onPull() {
+            pull(in);
+          }
+        });
+      }
+
+      private void expire(long now) {
+        Iterator<Map.Entry<K, Long>> entries = seen.entrySet().iterator();
+        while (entries.hasNext() && now - entries.next().getValue() > windowNanos) {
+          entries.remove();
+        }
+      }
+
+      private void expireEldest() {
+        Iterator<K> keys = seen.keySet().iterator();
+        keys.next();
+        keys.remove();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.Lists;
+
+import akka.NotUsed;
+import akka.japi.Pair;
+import akka.stream.javadsl.Source;
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * Reads the chirp history of many users and merges it in timestamp order.
+ *
+ * Users are grouped and the first chirps of each group are read with one
+ * multi-partition query. Users whose history didn't fit in that query are
+ * paged through one partition at a time. With the bucketed table layout all
+ * users are paged through, see {@link ChirpTable#partitionsPerRead()}. All
+ * queries go through the {@link PartitionReadLimiter}.
+ */
+@Singleton
+public class HistoryFetcher {
+
+  private static final int LOOK_AHEAD = 16;
+  private static final int CELEBRITY_LOOKUP_SIZE = 100;
+
+  private final ChirpTable table;
+  private final TimelineTable timelineTable;
+  private final PartitionReadLimiter limiter;
+  private final ChirpMetrics metrics;
+  private final int partitionsPerRead;
+
+  @Inject
+  public HistoryFetcher(ChirpTable table, TimelineTable timelineTable, PartitionReadLimiter limiter,
+      ChirpMetrics metrics) {
+    this.table = table;
+    this.timelineTable = timelineTable;
+    this.limiter = limiter;
+    this.metrics = metrics;
+    this.partitionsPerRead = table.partitionsPerRead();
+  }
+
+  /**
+   * The history of the users from <code>fromTime</code> until
+   * <code>toTime</code>, if given, resuming after the given positions of the
+   * users that have one. At most <code>readSize</code> chirps are read per
+   * user and query.
+   */
+  public Source<Chirp, NotUsed> history(List<String> userIds, Instant fromTime, Optional<Instant> toTime,
+      Map<String, ChirpPosition> positions, int readSize) {
+    long from = fromTime.toEpochMilli();
+    long to = toTime.map(Instant::toEpochMilli).orElse(Long.MAX_VALUE);
+    List<String> distinctUserIds = new ArrayList<>(new LinkedHashSet<>(userIds));
+    List<Source<Chirp, ?>> sources = new ArrayList<>();
+    List<String> fromStart = new ArrayList<>();
+    for (String userId : distinctUserIds) {
+      // multi-partition reads can't resume each partition at its own position
+      if (positions.containsKey(userId))
+        sources.add(pagedHistory(userId, from, to, Optional.of(positions.get(userId)), readSize));
+      else
+        fromStart.add(userId);
+    }
+    if (partitionsPerRead <= 1) {
+      for (String userId : fromStart) {
+        sources.add(pagedHistory(userId, from, to, Optional.empty(), readSize));
+      }
+    } else {
+      for (List<String> group : Lists.partition(fromStart, partitionsPerRead)) {
+        // the group is read once, when the first of its users is materialized
+        Supplier<CompletionStage<GroupRead>> groupRead = Suppliers.memoize(() -> readGroup(group, from, to, readSize));
+        for (String userId : group) {
+          sources.add(userHistory(userId, from, to, groupRead, readSize));
+        }
+      }
+    }
+    return SortedMerge.merge(sources, Chirp.TIMESTAMP_ORDER, LOOK_AHEAD);
+  }
+
+  /**
+   * The home timeline of the user from <code>fromTime</code> until
+   * <code>toTime</code>, if given, a single partition paged through
+   * <code>readSize</code> chirps at a time. The history of the celebrities
+   * among the followed users is merged in, it may duplicate chirps that were
+   * pushed to the timeline before their author became a celebrity.
+   */
+  public Source<Chirp, NotUsed> timeline(String userId, List<String> followedUserIds, Instant fromTime,
+      Optional<Instant> toTime, int readSize) {
+    long from = fromTime.toEpochMilli();
+    long to = toTime.map(Instant::toEpochMilli).orElse(Long.MAX_VALUE);
+    Source<Chirp, NotUsed> timeline = paged(Optional.empty(), readSize, after -> {
+      metrics.partitionRead();
+      return limiter.submit(() -> timelineTable.readPage(userId, from, to, after, readSize));
+    });
+    if (followedUserIds.isEmpty())
+      return timeline;
+    return Source.single(followedUserIds)
+      .mapAsync(1, this::celebrities)
+      .flatMapConcat(celebrities -> {
+        if (celebrities.isEmpty())
+          return timeline;
+        metrics.celebritiesPulled(celebrities.size());
+        List<Source<Chirp, ?>> sources = new ArrayList<>();
+        sources.add(timeline);
+        sources.add(history(celebrities, fromTime, toTime, Collections.emptyMap(), readSize));
+        return SortedMerge.merge(sources, Chirp.TIMESTAMP_ORDER, LOOK_AHEAD);
+      });
+  }
+
+  private CompletionStage<List<String>> celebrities(List<String> userIds) {
+    List<CompletionStage<Set<String>>> results = new ArrayList<>();
+    for (List<String> group : Lists.partition(new ArrayList<>(new LinkedHashSet<>(userIds)), CELEBRITY_LOOKUP_SIZE)) {
+      results.add(limiter.submit(() -> timelineTable.celebrities(group)));
+    }
+    CompletionStage<List<String>> celebrities = CompletableFuture.completedFuture(new ArrayList<>());
+    for (CompletionStage<Set<String>> result : results) {
+      celebrities = celebrities.thenCombine(result, (all, some) -> {
+        all.addAll(some);
+        return all;
+      });
+    }
+    return celebrities;
+  }
+
+  private Source<Chirp, NotUsed> userHistory(String userId, long from, long to,
+      Supplier<CompletionStage<GroupRead>> groupRead, int readSize) {
+    return Source.single(userId)
+      .mapAsync(1, u -> groupRead.get())
+      .flatMapConcat(group -> {
+        if (group.isComplete(userId)) {
+          return Source.from(group.chirps(userId));
+        } else {
+          List<Chirp> partial = group.chirps(userId);
+          Optional<ChirpPosition> last = partial.isEmpty() ? Optional.empty()
+              : Optional.of(ChirpPosition.of(partial.get(partial.size() - 1)));
+          return Source.from(partial).concat(pagedHistory(userId, from, to, last, readSize));
+        }
+      });
+  }
+
+  private CompletionStage<GroupRead> readGroup(List<String> userIds, long from, long to, int readSize) {
+    int limit = userIds.size() * readSize;
+    metrics.multiPartitionRead();
+    // rows of a multi-partition query are returned one partition after the
+    // other, each partition in clustering order (timestamp ASC)
+    return limiter.submit(() -> table.readMultiPartition(userIds, from, to, limit))
+      .thenApply(rows -> {
+        Map<String, List<Chirp>> chirps = new HashMap<>();
+        String lastUserId = null;
+        for (Chirp chirp : rows) {
+          chirps.computeIfAbsent(chirp.userId, u -> new ArrayList<>()).add(chirp);
+          lastUserId = chirp.userId;
+        }
+        if (rows.size() < limit) {
+          return new GroupRead(chirps, Collections.emptyList());
+        } else {
+          // the limit was reached, the last partition may have been cut off
+          // and partitions that weren't reached at all need to be read
+          List<String> incomplete = new ArrayList<>();
+          for (String userId : userIds) {
+            if (!chirps.containsKey(userId) || userId.equals(lastUserId))
+              incomplete.add(userId);
+          }
+          return new GroupRead(chirps, incomplete);
+        }
+      });
+  }
+
+  private Source<Chirp, NotUsed> pagedHistory(String userId, long from, long to, Optional<ChirpPosition> after,
+      int readSize) {
+    return paged(after, readSize, position -> readPage(userId, from, to, position, readSize));
+  }
+
+  /**
+   * Pages through one partition until a page isn't full.
+   */
+  private Source<Chirp, NotUsed> paged(Optional<ChirpPosition> after, int readSize,
+      Function<Optional<ChirpPosition>, CompletionStage<List<Chirp>>> readPage) {
+    return Source.<PageState, List<Chirp>>unfoldAsync(new PageState(after, true), state -> {
+      if (!state.more)
+        return CompletableFuture.completedFuture(Optional.empty());
+      return readPage.apply(state.after).thenApply(page -> {
+        Optional<ChirpPosition> last = page.isEmpty() ? state.after
+            : Optional.of(ChirpPosition.of(page.get(page.size() - 1)));
+        PageState next = new PageState(last, page.size() == readSize);
+        return Optional.of(Pair.create(next, page));
+      });
+    }).mapConcat(page -> page);
+  }
+
+  private CompletionStage<List<Chirp>> readPage(String userId, long from, long to, Optional<ChirpPosition> after,
+      int readSize) {
+    metrics.partitionRead();
+    return limiter.submit(() -> table.readPage(userId, from, to, after, readSize));
+  }
+
+  private static final class PageState {
+    final Optional<ChirpPosition> after;
+    final boolean more;
+
+    PageState(Optional<ChirpPosition> after, boolean more) {
+      this.after = after;
+      this.more = more;
+    }
+  }
+
+  private static final class GroupRead {
+    private final Map<String, List<Chirp>> chirps;
+    private final List<String> incomplete;
+
+    GroupRead(Map<String, List<Chirp>> chirps, List<String> incomplete) {
+      this.chirps = chirps;
+      this.incomplete = incomplete;
+    }
+
+    boolean isComplete(String userId) {
+      return !incomplete.contains(userId);
+    }
+
+    List<Chirp> chirps(String userId) {
+      return chirps.getOrDefault(userId, Collections.emptyList());
+    }
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Caps the number of chirp table reads that are executing at the same time on
+ * this node. Reads beyond the cap are queued and started in submission order
+ * when a running read completes, so that one request for a large friend list
+ * can't exhaust the connection pool of the Cassandra driver.
+ */
+@Singleton
+public class PartitionReadLimiter {
+
+  private final int maxConcurrentReads;
+  private final ChirpMetrics metrics;
+  private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+  private int inFlight = 0; // guarded by this
+
+  @Inject
+  public PartitionReadLimiter(ChirpSettings settings, ChirpMetrics metrics) {
+    this(settings.historyMaxConcurrentReads, metrics);
+  }
+
+  public PartitionReadLimiter(int maxConcurrentReads, ChirpMetrics metrics) {
+    if (maxConcurrentReads < 1)
+      throw new IllegalArgumentException("maxConcurrentReads must be at least 1, was " + maxConcurrentReads);
+    this.maxConcurrentReads = maxConcurrentReads;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Run the read when a slot is free. The read is not started before that.
+   */
+  public <T> CompletionStage<T> submit(Supplier<CompletionStage<T>> read) {
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Runnable task = () -> {
+      CompletionStage<T> started;
+      try {
+        started = read.get();
+      } catch (RuntimeException e) {
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        started = failed;
+      }
+      started.whenComplete((value, err) -> {
+        release();
+        if (err != null)
+          result.completeExceptionally(err);
+        else
+          result.complete(value);
+      });
+    };
+
+    boolean runNow;
+    synchronized (this) {
+      if (inFlight < maxConcurrentReads) {
+        inFlight++;
+        runNow = true;
+      } else {
+        queued.add(task);
+        runNow = false;
+      }
+      metrics.partitionReadsChanged(inFlight, queued.size());
+    }
+    if (runNow)
+      task.run();
+    return result;
+  }
+
+  private void release() {
+    Runnable next;
+    synchronized (this) {
+      // the slot is handed over to the next queued read, if any
+      next = queued.poll();
+      if (next == null)
+        inFlight--;
+      metrics.partitionReadsChanged(inFlight, queued.size());
+    }
+    if (next != null)
+      next.run();
+  }
+
+}
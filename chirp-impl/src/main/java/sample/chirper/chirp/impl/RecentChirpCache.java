@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * Node local cache of the most recent chirps of each author.
+ *
+ * An entry is loaded from Cassandra on a miss and then kept up to date with
+ * the chirps added on this node and the chirps received from the author's
+ * topic. Chirps added while an entry is loading are merged into the loaded
+ * chirps. An entry can only be kept up to date while this node is subscribed
+ * to the author's topic, and only if it was loaded after the subscription
+ * settled, so other entries are only trusted for a short time after they were
+ * loaded. Entries are dropped when the subscription ends. The least recently
+ * used authors are evicted when the cache is full.
+ */
+@Singleton
+public class RecentChirpCache {
+
+  private final int chirpsPerAuthor;
+  private final int maxAuthors;
+  private final long unsubscribedTtlNanos;
+  private final long subscriptionSettleNanos;
+  private final ChirpMetrics metrics;
+
+  // guarded by this
+  private final LinkedHashMap<String, AuthorChirps> authors;
+  // topic qualifier -> time from which its subscription receives all chirps
+  private final Map<String, Long> subscribedSince = new HashMap<>();
+  // userId -> loads of that author in progress
+  private final Map<String, Set<Load>> loading = new HashMap<>();
+
+  @Inject
+  public RecentChirpCache(ChirpSettings settings, ChirpMetrics metrics) {
+    this.chirpsPerAuthor = settings.recentChirps;
+    this.maxAuthors = settings.recentCacheMaxAuthors;
+    this.unsubscribedTtlNanos = settings.recentCacheUnsubscribedTtl.toNanos();
+    this.subscriptionSettleNanos = settings.recentCacheSubscriptionSettleTime.toNanos();
+    this.metrics = metrics;
+    this.authors = new LinkedHashMap<String, AuthorChirps>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, AuthorChirps> eldest) {
+        return size() > maxAuthors;
+      }
+    };
+  }
+
+  /**
+   * The cached recent chirps of the author, oldest first.
+   */
+  public synchronized Optional<List<Chirp>> get(String userId) {
+    AuthorChirps entry = authors.get(userId);
+    if (entry != null && !isTrusted(userId, entry)) {
+      authors.remove(userId);
+      entry = null;
+    }
+    if (entry == null) {
+      metrics.recentCacheMiss();
+      return Optional.empty();
+    } else {
+      metrics.recentCacheHit();
+      return Optional.of(new ArrayList<>(entry.chirps));
+    }
+  }
+
+  /**
+   * Start loading the recent chirps of the author, must be called before
+   * reading them from Cassandra.
+   */
+  public synchronized Load startLoad(String userId) {
+    Load load = new Load(userId, System.nanoTime());
+    loading.computeIfAbsent(userId, u -> new HashSet<>()).add(load);
+    return load;
+  }
+
+  /**
+   * Cache the recent chirps of the author that were read from Cassandra,
+   * oldest first, together with the chirps added since the load started.
+   * Returns the merged chirps.
+   */
+  public synchronized List<Chirp> completeLoad(Load load, List<Chirp> recentChirps) {
+    endLoad(load);
+    AuthorChirps entry = new AuthorChirps(load.startedAt);
+    for (Chirp chirp : recentChirps) {
+      entry.add(chirp, chirpsPerAuthor);
+    }
+    for (Chirp chirp : load.added) {
+      entry.add(chirp, chirpsPerAuthor);
+    }
+    authors.put(load.userId, entry);
+    return new ArrayList<>(entry.chirps);
+  }
+
+  /**
+   * Give up a load that failed.
+   */
+  public synchronized void abandonLoad(Load load) {
+    endLoad(load);
+  }
+
+  private void endLoad(Load load) {
+    Set<Load> loads = loading.get(load.userId);
+    if (loads != null) {
+      loads.remove(load);
+      if (loads.isEmpty())
+        loading.remove(load.userId);
+    }
+  }
+
+  /**
+   * Add a new chirp to the cached chirps of its author, if the author is
+   * cached or being loaded.
+   */
+  public synchronized void add(Chirp chirp) {
+    AuthorChirps entry = authors.get(chirp.userId);
+    if (entry != null)
+      entry.add(chirp, chirpsPerAuthor);
+    Set<Load> loads = loading.get(chirp.userId);
+    if (loads != null) {
+      for (Load load : loads) {
+        load.added.add(chirp);
+      }
+    }
+  }
+
+  public synchronized void subscribed(String qualifier) {
+    subscribedSince.put(qualifier, System.nanoTime() + subscriptionSettleNanos);
+  }
+
+  public synchronized void unsubscribed(String qualifier) {
+    subscribedSince.remove(qualifier);
+    Iterator<String> userIds = authors.keySet().iterator();
+    while (userIds.hasNext()) {
+      if (ChirpHub.topicQualifier(userIds.next()).equals(qualifier))
+        userIds.remove();
+    }
+  }
+
+  private boolean isTrusted(String userId, AuthorChirps entry) {
+    // an entry loaded before the subscription settled may miss chirps for good
+    Long since = subscribedSince.get(ChirpHub.topicQualifier(userId));
+    return since != null && entry.loadedAt - since >= 0
+        || System.nanoTime() - entry.loadedAt < unsubscribedTtlNanos;
+  }
+
+  /**
+   * A load of the recent chirps of an author in progress.
+   */
+  public static final class Load {
+    final String userId;
+    final long startedAt;
+    // guarded by RecentChirpCache.this
+    final List<Chirp> added = new ArrayList<>();
+
+    Load(String userId, long startedAt) {
+      this.userId = userId;
+      this.startedAt = startedAt;
+    }
+  }
+
+  private static final class AuthorChirps {
+    final long loadedAt;
+    // oldest first
+    final List<Chirp> chirps = new ArrayList<>();
+
+    AuthorChirps(long loadedAt) {
+      this.loadedAt = loadedAt;
+    }
+
+    void add(Chirp chirp, int limit) {
+      for (Chirp existing : chirps) {
+        if (existing.uuid.equals(chirp.uuid))
+          return;
+      }
+      int i = chirps.size();
+      while (i > 0 && Chirp.TIMESTAMP_ORDER.compare(chirps.get(i - 1), chirp) > 0) {
+        i--;
+      }
+      chirps.add(i, chirp);
+      if (chirps.size() > limit)
+        chirps.remove(0);
+    }
+  }
+
+}
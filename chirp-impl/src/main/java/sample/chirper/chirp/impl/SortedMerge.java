@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import akka.NotUsed;
+import akka.stream.Attributes;
+import akka.stream.Inlet;
+import akka.stream.Outlet;
+import akka.stream.SourceShape;
+import akka.stream.UniformFanInShape;
+import akka.stream.javadsl.GraphDSL;
+import akka.stream.javadsl.Source;
+import akka.stream.stage.AbstractInHandler;
+import akka.stream.stage.AbstractOutHandler;
+import akka.stream.stage.GraphStage;
+import akka.stream.stage.GraphStageLogic;
+
+/**
+ * Merges any number of upstreams that are each sorted according to the same
+ * comparator into one globally sorted stream (a k-way merge).
+ *
+ * An element is only emitted when every upstream that is still open has at
+ * least one buffered element, so that the smallest head is known. Each
+ * upstream is read ahead by at most <code>lookAhead</code> elements.
+ */
+public final class SortedMerge<T> extends GraphStage<UniformFanInShape<T, T>> {
+
+  private final int inputPorts;
+  private final int lookAhead;
+  private final Comparator<? super T> comparator;
+  private final List<Inlet<T>> ins;
+  private final Outlet<T> out = Outlet.create("SortedMerge.out");
+  private final UniformFanInShape<T, T> shape;
+
+  public SortedMerge(int inputPorts, int lookAhead, Comparator<? super T> comparator) {
+    if (inputPorts < 1)
+      throw new IllegalArgumentException("inputPorts must be at least 1, was " + inputPorts);
+    if (lookAhead < 1)
+      throw new IllegalArgumentException("lookAhead must be at least 1, was " + lookAhead);
+    this.inputPorts = inputPorts;
+    this.lookAhead = lookAhead;
+    this.comparator = comparator;
+    this.ins = new ArrayList<>(inputPorts);
+    @SuppressWarnings("unchecked")
+    Inlet<T>[] inlets = new Inlet[inputPorts];
+    for (int i = 0; i < inputPorts; i++) {
+      Inlet<T> in = Inlet.create("SortedMerge.in" + i);
+      ins.add(in);
+      inlets[i] = in;
+    }
+    this.shape = new UniformFanInShape<>(out, inlets);
+  }
+
+  /**
+   * Merge the given individually sorted sources into one sorted source.
+   */
+  public static <T> Source<T, NotUsed> merge(List<? extends Source<T, ?>> sources,
+      Comparator<? super T> comparator, int lookAhead) {
+    if (sources.isEmpty())
+      return Source.empty();
+    return Source.fromGraph(GraphDSL.create(b -> {
+      UniformFanInShape<T, T> merge = b.add(new SortedMerge<T>(sources.size(), lookAhead, comparator));
+      for (int i = 0; i < sources.size(); i++) {
+        b.from(b.add(sources.get(i))).toInlet(merge.in(i));
+      }
+      return new SourceShape<>(merge.out());
+    }));
+  }
+
+  @Override
+  public UniformFanInShape<T, T> shape() {
+    return shape;
+  }
+
+  @Override
+  public GraphStageLogic createLogic(Attributes inheritedAttributes) {
+    return new GraphStageLogic(shape) {
+      private final List<ArrayDeque<T>> buffers = new ArrayList<>(inputPorts);
+      // ports with at least one buffered element, ordered by their head element
+      private final PriorityQueue<Integer> ready = new PriorityQueue<>(inputPorts,
+          (a, b) -> comparator.compare(buffers.get(a).peek(), buffers.get(b).peek()));
+      // open ports with nothing buffered, we can't emit until they have answered
+      private int waiting = inputPorts;
+
+      {
+        for (int i = 0; i < inputPorts; i++) {
+          buffers.add(new ArrayDeque<>(lookAhead));
+          final int port = i;
+          final Inlet<T> in = ins.get(i);
+          setHandler(in, new AbstractInHandler() {
+            @Override
+            public void onPush() {
+              ArrayDeque<T> buffer = buffers.get(port);
+              buffer.add(grab(in));
+              if (buffer.size() == 1) {
+                waiting--;
+                ready.add(port);
+              }
+              if (buffer.size() < lookAhead)
+                pull(in);
+              emitIfPossible();
+            }
+
+            @Override
+            public void onUpstreamFinish() {
+              if (buffers.get(port).isEmpty())
+                waiting--;
+              emitIfPossible();
+            }
+          });
+        }
+
+        setHandler(out, new AbstractOutHandler() {
+          @Override
+          public void onPull() {
+            emitIfPossible();
+          }
+        });
+      }
+
+      @Override
+      public void preStart() {
+        for (Inlet<T> in : ins) {
+          pull(in);
+        }
+      }
+
+      private void emitIfPossible() {
+        if (waiting == 0 && isAvailable(out) && !ready.isEmpty()) {
+          int port = ready.poll();
+          ArrayDeque<T> buffer = buffers.get(port);
+          Inlet<T> in = ins.get(port);
+          push(out, buffer.poll());
+          if (!buffer.isEmpty())
+            ready.add(port);
+          else if (!isClosed(in))
+            waiting++;
+          if (!isClosed(in) && !hasBeenPulled(in))
+            pull(in);
+        }
+        // all ports are closed and drained
+        if (waiting == 0 && ready.isEmpty())
+          completeStage();
+      }
+    };
+  }
+
+}
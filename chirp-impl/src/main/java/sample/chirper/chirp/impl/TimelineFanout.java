@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.ThrottleMode;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import play.Logger;
+import play.Logger.ALogger;
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.friend.api.FriendService;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Appends new chirps to the home timelines of their author and followers.
+ *
+ * Chirps that have been written are queued, the followers of each author
+ * are streamed with {@link FriendService#getFollowersStream()}, and the timeline
+ * rows are written in unlogged batches per timeline partition. The row
+ * writes are throttled so that a chirp of a user with many followers
+ * doesn't starve the chirp writes. Chirps are dropped when the queue is
+ * full, and the timelines then miss them.
+ *
+ * Authors with at least the celebrity threshold of followers are recorded
+ * as celebrities instead, their chirps are only added to their own
+ * timeline and are pulled from the chirp table when a timeline is read.
+ * The follower stream is cancelled at the threshold, so no more than the
+ * threshold of followers is read for a chirp, however many an author has.
+ */
+@Singleton
+public class TimelineFanout {
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final CassandraSession db;
+  private final TimelineTable table;
+  private final FriendService friendService;
+  private final Materializer materializer;
+  private final ChirpMetrics metrics;
+  private final boolean enabled;
+  private final int celebrityThreshold;
+  private final Set<String> celebrities = ConcurrentHashMap.newKeySet();
+  private final int queueDepth;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicReference<CompletionStage<PreparedStatement>> insertTimeline = new AtomicReference<>();
+  private final ActorRef queue;
+
+  @Inject
+  public TimelineFanout(CassandraSession db, TimelineTable table, FriendService friendService,
+      Materializer materializer, ChirpSettings settings, ChirpMetrics metrics) {
+    this.db = db;
+    this.table = table;
+    this.friendService = friendService;
+    this.materializer = materializer;
+    this.metrics = metrics;
+    this.enabled = settings.timelineEnabled;
+    this.celebrityThreshold = settings.timelineCelebrityThreshold;
+    this.queueDepth = settings.timelineQueueDepth;
+    if (enabled) {
+      FiniteDuration linger = FiniteDuration.create(settings.timelineLinger.toNanos(), TimeUnit.NANOSECONDS);
+      FiniteDuration second = FiniteDuration.create(1, TimeUnit.SECONDS);
+      int rowsPerSecond = settings.timelineWritesPerSecond;
+      // the queued counter makes sure that the buffer never overflows
+      this.queue = Source.<Chirp>actorRef(queueDepth, OverflowStrategy.dropNew())
+        .mapAsyncUnordered(settings.timelineFollowerLookups, this::timelineEntries)
+        .mapConcat(entries -> entries)
+        .groupedWithin(settings.timelineBatchSize, linger)
+        .throttle(rowsPerSecond, second, Math.max(rowsPerSecond, settings.timelineBatchSize), batch -> batch.size(),
+            ThrottleMode.shaping())
+        .mapAsyncUnordered(settings.timelineParallelism, this::writeBatch)
+        .to(Sink.ignore())
+        .run(materializer);
+      table.createTables().thenCompose(done -> table.celebrities()).whenComplete((known, err) -> {
+        if (err != null)
+          log.error("Failed to create timeline table, due to: " + err.getMessage(), err);
+        else
+          celebrities.addAll(known);
+      });
+    } else {
+      this.queue = null;
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Queue a chirp that has been written for fan-out, does nothing when the
+   * timelines are disabled.
+   */
+  public void fanOut(Chirp chirp) {
+    if (!enabled)
+      return;
+    if (queued.incrementAndGet() > queueDepth) {
+      metrics.timelineFanoutQueued(queued.decrementAndGet());
+      metrics.timelineFanoutDropped();
+    } else {
+      metrics.timelineFanoutQueued(queued.get());
+      queue.tell(chirp, ActorRef.noSender());
+    }
+  }
+
+  private CompletionStage<List<TimelineEntry>> timelineEntries(Chirp chirp) {
+    // reaching the threshold is all that's needed to know a celebrity, the rest is never read
+    // @formatter:off
+    CompletionStage<List<String>> someFollowers = friendService.getFollowersStream()
+      .invoke(chirp.userId, NotUsed.getInstance())
+      .thenCompose(followers -> followers
+        .take(celebrityThreshold)
+        .<List<String>>runFold(new ArrayList<>(), (found, follower) -> {
+          found.add(follower);
+          return found;
+        }, materializer));
+    // @formatter:on
+    CompletionStage<List<TimelineEntry>> entries = someFollowers
+      .thenCompose(followers -> classify(chirp.userId, followers.size()).thenApply(celebrity -> {
+        List<TimelineEntry> result = new ArrayList<>(followers.size() + 1);
+        result.add(new TimelineEntry(chirp.userId, chirp));
+        if (celebrity) {
+          // followers pull the chirps of celebrities when reading their timelines
+          metrics.celebrityChirpNotPushed();
+        } else {
+          for (String follower : followers) {
+            result.add(new TimelineEntry(follower, chirp));
+          }
+        }
+        return result;
+      }));
+    return entries.handle((result, err) -> {
+      metrics.timelineFanoutQueued(queued.decrementAndGet());
+      if (err != null) {
+        metrics.timelineFanoutFailed();
+        log.warn("Failed to look up the followers of " + chirp.userId + ", due to: " + err.getMessage());
+        return Collections.singletonList(new TimelineEntry(chirp.userId, chirp));
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Records the author's classification, completes with whether the chirps
+   * of the author are pulled rather than pushed.
+   *
+   * Celebrities are recorded with each of their chirps, they are few and
+   * another node may have removed them in the meantime. If that fails the
+   * chirp is pushed, so that the followers don't miss it. Authors are only
+   * removed by nodes that know them as celebrities, which at worst keeps
+   * pulling the chirps of a former celebrity.
+   */
+  private CompletionStage<Boolean> classify(String userId, int followers) {
+    if (followers >= celebrityThreshold) {
+      celebrities.add(userId);
+      return table.addCelebrity(userId, followers).handle((done, err) -> {
+        if (err != null)
+          log.warn("Failed to record celebrity " + userId + ", due to: " + err.getMessage());
+        return err == null;
+      });
+    } else {
+      if (celebrities.remove(userId))
+        table.removeCelebrity(userId).whenComplete((done, err) -> {
+          if (err != null)
+            celebrities.add(userId);
+        });
+      return CompletableFuture.completedFuture(false);
+    }
+  }
+
+  private CompletionStage<Done> writeBatch(List<TimelineEntry> entries) {
+    return insertTimeline().thenCompose(insert -> {
+      Map<String, List<TimelineEntry>> byPartition = new LinkedHashMap<>();
+      for (TimelineEntry entry : entries) {
+        byPartition.computeIfAbsent(entry.owner, k -> new ArrayList<>()).add(entry);
+      }
+      List<CompletableFuture<Done>> results = new ArrayList<>(byPartition.size());
+      for (List<TimelineEntry> partition : byPartition.values()) {
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (TimelineEntry entry : partition) {
+          batch.add(insert.bind(table.insertValues(entry.owner, entry.chirp)));
+        }
+        results.add(db.executeWriteBatch(batch).toCompletableFuture());
+      }
+      return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]));
+    }).handle((ok, err) -> {
+      if (err != null) {
+        metrics.timelineFanoutFailed();
+        log.warn("Failed to write " + entries.size() + " timeline entries, due to: " + err.getMessage());
+      } else {
+        long oldest = Collections.min(entries, (a, b) -> a.chirp.timestamp.compareTo(b.chirp.timestamp))
+          .chirp.timestamp.toEpochMilli();
+        metrics.timelineBatchWritten(entries.size(), System.currentTimeMillis() - oldest);
+      }
+      // the stream must not fail, later chirps are still fanned out
+      return Done.getInstance();
+    });
+  }
+
+  private CompletionStage<PreparedStatement> insertTimeline() {
+    CompletionStage<PreparedStatement> existing = insertTimeline.get();
+    if (existing != null)
+      return existing;
+    CompletionStage<PreparedStatement> prepared = db.prepare(table.insertStatement());
+    insertTimeline.set(prepared);
+    // a failed prepare, e.g. before the table was created, is retried with the next batch
+    prepared.whenComplete((ps, err) -> {
+      if (err != null)
+        insertTimeline.compareAndSet(prepared, null);
+    });
+    return prepared;
+  }
+
+  private static final class TimelineEntry {
+    final String owner;
+    final Chirp chirp;
+
+    TimelineEntry(String owner, Chirp chirp) {
+      this.owner = owner;
+      this.chirp = chirp;
+    }
+  }
+
+}
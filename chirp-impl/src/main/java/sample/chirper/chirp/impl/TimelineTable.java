@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import com.datastax.driver.core.Row;
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+
+import akka.Done;
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * The home timelines, one partition per user holding the chirps of the user
+ * and of everyone the user follows, except celebrities. Rows expire after
+ * the configured TTL.
+ *
+ * The <code>celebrity</code> table holds the authors whose chirps are not
+ * pushed into the timelines of their followers, because they have too many.
+ */
+@Singleton
+public class TimelineTable {
+
+  private final CassandraSession db;
+  private final int ttlSeconds;
+
+  @Inject
+  public TimelineTable(CassandraSession db, ChirpSettings settings) {
+    this.db = db;
+    this.ttlSeconds = (int) settings.timelineTtl.getSeconds();
+  }
+
+  public CompletionStage<Done> createTables() {
+    // @formatter:off
+    return db.executeCreateTable(
+        "CREATE TABLE IF NOT EXISTS timeline ("
+        + "userId text, timestamp bigint, uuid text, authorId text, message text, "
+        + "PRIMARY KEY (userId, timestamp, uuid))")
+      .thenCompose(done -> db.executeCreateTable(
+        "CREATE TABLE IF NOT EXISTS celebrity ("
+        + "userId text, followers int, "
+        + "PRIMARY KEY (userId))"));
+    // @formatter:on
+  }
+
+  public CompletionStage<Set<String>> celebrities() {
+    return db.selectAll("SELECT userId FROM celebrity")
+      .thenApply(rows -> rows.stream().map(row -> row.getString("userId")).collect(Collectors.toSet()));
+  }
+
+  /**
+   * The celebrities among the given users.
+   */
+  public CompletionStage<Set<String>> celebrities(List<String> userIds) {
+    return db.selectAll("SELECT userId FROM celebrity WHERE userId IN ?", userIds)
+      .thenApply(rows -> rows.stream().map(row -> row.getString("userId")).collect(Collectors.toSet()));
+  }
+
+  public CompletionStage<Done> addCelebrity(String userId, int followers) {
+    return db.executeWrite("INSERT INTO celebrity (userId, followers) VALUES (?, ?)", userId, followers);
+  }
+
+  public CompletionStage<Done> removeCelebrity(String userId) {
+    return db.executeWrite("DELETE FROM celebrity WHERE userId = ?", userId);
+  }
+
+  public String insertStatement() {
+    return "INSERT INTO timeline (userId, timestamp, uuid, authorId, message) VALUES (?, ?, ?, ?, ?) USING TTL ?";
+  }
+
+  /**
+   * The values to bind to the {@link #insertStatement()} to add the chirp to
+   * the timeline of the owner.
+   */
+  public Object[] insertValues(String owner, Chirp chirp) {
+    return new Object[] { owner, chirp.timestamp.toEpochMilli(), chirp.uuid, chirp.userId, chirp.message,
+        ttlSeconds };
+  }
+
+  /**
+   * The chirps of the timeline from <code>from</code> (inclusive) until
+   * <code>to</code> (exclusive) and after the <code>after</code> position,
+   * oldest first, at most <code>limit</code>.
+   */
+  public CompletionStage<List<Chirp>> readPage(String userId, long from, long to,
+      Optional<ChirpPosition> resumeAfter, int limit) {
+    Optional<ChirpPosition> after = resumeAfter.filter(position -> position.timestamp >= from);
+    CompletionStage<List<Row>> rows;
+    if (after.isPresent()) {
+      ChirpPosition last = after.get();
+      // single and multi-column restrictions can't be mixed on clustering columns
+      rows = db.selectAll("SELECT * FROM timeline"
+          + " WHERE userId = ? AND (timestamp, uuid) > (?, ?) AND (timestamp) < (?)"
+          + " ORDER BY timestamp ASC LIMIT ?",
+          userId, last.timestamp, last.uuid, to, limit);
+    } else {
+      rows = db.selectAll("SELECT * FROM timeline"
+          + " WHERE userId = ? AND timestamp >= ? AND timestamp < ? ORDER BY timestamp ASC LIMIT ?",
+          userId, from, to, limit);
+    }
+    return rows.thenApply(rs -> rs.stream().map(TimelineTable::toChirp).collect(Collectors.toList()));
+  }
+
+  static Chirp toChirp(Row row) {
+    return new Chirp(row.getString("authorId"), row.getString("message"),
+        Optional.of(Instant.ofEpochMilli(row.getLong("timestamp"))), Optional.of(row.getString("uuid")));
+  }
+
+}
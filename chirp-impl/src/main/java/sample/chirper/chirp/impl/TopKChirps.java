@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import sample.chirper.chirp.api.Chirp;
+
+/**
+ * Selects the newest chirps out of many asynchronous per-user results.
+ *
+ * Each result is folded into a bounded min-heap as soon as it arrives, so
+ * at most <code>k</code> chirps are retained no matter how many results
+ * there are, and the selection completes when the last result arrives.
+ */
+public final class TopKChirps {
+
+  private final int k;
+  private final PriorityQueue<Chirp> heap; // guarded by this, oldest on top
+  private final AtomicInteger remaining;
+  private final CompletableFuture<PSequence<Chirp>> result = new CompletableFuture<>();
+
+  private TopKChirps(int k, int results) {
+    this.k = k;
+    this.heap = new PriorityQueue<>(k + 1, Chirp.TIMESTAMP_ORDER);
+    this.remaining = new AtomicInteger(results);
+  }
+
+  /**
+   * The newest <code>k</code> chirps of all results, oldest first.
+   */
+  public static CompletionStage<PSequence<Chirp>> newest(int k,
+      List<? extends CompletionStage<? extends Collection<Chirp>>> results) {
+    if (results.isEmpty() || k <= 0)
+      return CompletableFuture.completedFuture(TreePVector.empty());
+    TopKChirps topK = new TopKChirps(k, results.size());
+    for (CompletionStage<? extends Collection<Chirp>> chirps : results) {
+      chirps.whenComplete((value, err) -> {
+        if (err != null)
+          topK.result.completeExceptionally(err);
+        else
+          topK.offer(value);
+      });
+    }
+    return topK.result;
+  }
+
+  private void offer(Collection<Chirp> chirps) {
+    synchronized (this) {
+      for (Chirp chirp : chirps) {
+        if (heap.size() < k) {
+          heap.add(chirp);
+        } else if (Chirp.TIMESTAMP_ORDER.compare(chirp, heap.peek()) > 0) {
+          heap.poll();
+          heap.add(chirp);
+        }
+      }
+    }
+    if (remaining.decrementAndGet() == 0)
+      complete();
+  }
+
+  private synchronized void complete() {
+    List<Chirp> newest = new ArrayList<>(heap);
+    Collections.sort(newest, Chirp.TIMESTAMP_ORDER);
+    result.complete(TreePVector.from(newest));
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pcollections.TreePVector;
+
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpPage;
+import sample.chirper.chirp.api.ChirpService;
+import sample.chirper.chirp.api.HistoricalChirpsRequest;
+
+/**
+ * Runs the chirp service tests, history, paging and resuming included, with
+ * the bucketed table layout.
+ */
+public class BucketedChirpServiceTest extends ChirpServiceTest {
+
+  // hides the set up of ChirpServiceTest
+  @BeforeClass
+  public static void setUp() {
+    server = startServer(defaultSetup().withConfigureBuilder(b -> b
+        .configure("chirp.storage.layout", "bucketed")));
+  }
+
+  @Test
+  public void shouldReadChirpsSpreadOverManyBuckets() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+
+    // the reads of more than one bucket sort the chirps of the buckets
+    Instant now = Instant.now();
+    Chirp chirp1 = new Chirp("usr30", "spread 1", Optional.of(now.minusSeconds(40 * 24 * 3600)), Optional.empty());
+    chirpService.addChirp().invoke("usr30", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr30", "spread 2", Optional.of(now.minusSeconds(20 * 24 * 3600)), Optional.empty());
+    chirpService.addChirp().invoke("usr30", chirp2).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp3 = new Chirp("usr30", "spread 3", Optional.of(now.minusSeconds(19 * 24 * 3600)), Optional.empty());
+    chirpService.addChirp().invoke("usr30", chirp3).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp4 = new Chirp("usr30", "spread 4", Optional.of(now.minusSeconds(2 * 24 * 3600)), Optional.empty());
+    chirpService.addChirp().invoke("usr30", chirp4).toCompletableFuture().get(3, SECONDS);
+
+    HistoricalChirpsRequest request1 = new HistoricalChirpsRequest(now.minusSeconds(50 * 24 * 3600),
+        TreePVector.singleton("usr30"), Optional.empty(), Optional.empty(), Optional.of(3), Optional.empty());
+    ChirpPage page1 = chirpService.getHistoricalChirpsPage().invoke(request1).toCompletableFuture().get(3, SECONDS);
+    assertEquals(TreePVector.empty().plus(chirp1).plus(chirp2).plus(chirp3), page1.chirps);
+
+    HistoricalChirpsRequest request2 = new HistoricalChirpsRequest(now.minusSeconds(50 * 24 * 3600),
+        TreePVector.singleton("usr30"), Optional.empty(), Optional.empty(), Optional.of(3), page1.nextCursor);
+    ChirpPage page2 = chirpService.getHistoricalChirpsPage().invoke(request2).toCompletableFuture().get(3, SECONDS);
+    assertEquals(TreePVector.singleton(chirp4), page2.chirps);
+
+    ChirpTable table = server.injector().instanceOf(ChirpTable.class);
+    assertEquals(Arrays.asList(chirp3, chirp4), table.readRecent("usr30", 2).toCompletableFuture().get(3, SECONDS));
+    assertEquals(Arrays.asList(chirp1, chirp2, chirp3, chirp4),
+        table.readRecent("usr30", 10).toCompletableFuture().get(3, SECONDS));
+  }
+
+  @Test
+  public void shouldRejectHistoryBeyondTheMaximumLookback() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+    HistoricalChirpsRequest request = new HistoricalChirpsRequest(Instant.EPOCH, TreePVector.singleton("usr1"));
+    try {
+      chirpService.getHistoricalChirps().invoke(request).toCompletableFuture().get(3, SECONDS);
+      fail("Expected the request to be rejected");
+    } catch (ExecutionException e) {
+      // rejected
+    }
+  }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import sample.chirper.chirp.api.Chirp;
+
+public class ChirpCursorTest {
+
+  @Test
+  public void shouldRoundTripPositions() {
+    Map<String, ChirpPosition> positions = new LinkedHashMap<>();
+    positions.put("usr1", new ChirpPosition(1460000000000L, "uuid-1"));
+    positions.put("usr2", new ChirpPosition(1460000001000L, "uuid-2"));
+    assertEquals(positions, ChirpCursor.decode(ChirpCursor.encode(positions)));
+  }
+
+  @Test
+  public void shouldRoundTripTimeBasedIds() {
+    Chirp chirp = new Chirp("usr1", "hello");
+    Map<String, ChirpPosition> positions = new LinkedHashMap<>();
+    positions.put("usr1", ChirpPosition.of(chirp));
+    String cursor = ChirpCursor.encode(positions);
+    assertEquals(positions, ChirpCursor.decode(cursor));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectMalformedCursor() {
+    ChirpCursor.decode("not a cursor");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectTruncatedCursor() {
+    Map<String, ChirpPosition> positions = new LinkedHashMap<>();
+    positions.put("usr1", new ChirpPosition(1460000000000L, "uuid-1"));
+    String cursor = ChirpCursor.encode(positions);
+    ChirpCursor.decode(cursor.substring(0, cursor.length() - 4));
+  }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.Setup;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import sample.chirper.chirp.api.Chirp;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.stream.testkit.TestSubscriber.Probe;
+import akka.stream.testkit.javadsl.TestSink;
+
+/**
+ * A live stream that doesn't request any chirps while more chirps than its
+ * buffer holds are published, with each overflow strategy.
+ */
+public class ChirpHubOverflowTest {
+
+  private static final int BUFFER_SIZE = 5;
+  private static final int CONFLATE_TO = 2;
+  private static final String SLOW_USER = "slow1";
+
+  @Test
+  public void shouldDropTheOldestChirps() throws Exception {
+    withServer(setup("drop-oldest"), server -> {
+      ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+      Probe<Chirp> probe = subscribeSlowly(server);
+      List<Chirp> chirps = publish(server, 8);
+      eventually(FiniteDuration.create(10, SECONDS), () -> {
+        assertEquals(3, metrics.getLiveChirpsDropped());
+        assertEquals(BUFFER_SIZE, metrics.getLiveChirpsBuffered());
+      });
+
+      probe.request(10);
+      for (Chirp chirp : chirps.subList(3, 8)) {
+        probe.expectNext(chirp);
+      }
+      probe.expectNoMsg(FiniteDuration.create(500, MILLISECONDS));
+      assertEquals(0, metrics.getLiveStreamsDisconnected());
+      probe.cancel();
+    });
+  }
+
+  @Test
+  public void shouldConflateToTheLatestChirps() throws Exception {
+    withServer(setup("conflate"), server -> {
+      ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+      Probe<Chirp> probe = subscribeSlowly(server);
+      List<Chirp> chirps = publish(server, 8);
+      // the sixth chirp overflows the buffer, which is conflated to the
+      // latest two, the seventh and eighth are buffered after them
+      eventually(FiniteDuration.create(10, SECONDS), () -> {
+        assertEquals(4, metrics.getLiveChirpsDropped());
+        assertEquals(4, metrics.getLiveChirpsBuffered());
+      });
+
+      probe.request(10);
+      for (Chirp chirp : chirps.subList(4, 8)) {
+        probe.expectNext(chirp);
+      }
+      probe.expectNoMsg(FiniteDuration.create(500, MILLISECONDS));
+      assertEquals(0, metrics.getLiveStreamsDisconnected());
+      probe.cancel();
+    });
+  }
+
+  @Test
+  public void shouldDisconnect() throws Exception {
+    withServer(setup("disconnect"), server -> {
+      ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+      Probe<Chirp> probe = subscribeSlowly(server);
+      publish(server, 8);
+      eventually(FiniteDuration.create(10, SECONDS), () -> {
+        assertEquals(1, metrics.getLiveStreamsDisconnected());
+        assertEquals(0, metrics.getLiveChirpsBuffered());
+      });
+
+      probe.request(10);
+      probe.expectError();
+      assertEquals(0, metrics.getLiveChirpsDropped());
+    });
+  }
+
+  private static Setup setup(String overflowStrategy) {
+    return defaultSetup().withConfigureBuilder(b -> b
+        .configure("chirp.live.buffer-size", BUFFER_SIZE)
+        .configure("chirp.live.conflate-to", CONFLATE_TO)
+        .configure("chirp.live.overflow-strategy", overflowStrategy));
+  }
+
+  /**
+   * Subscribes a live stream without demand to the chirps of the slow user.
+   * Returns once the topic subscription of the hub receives chirps, which a
+   * stream with demand that follows another user of the same topic checks.
+   */
+  private static Probe<Chirp> subscribeSlowly(TestServer server) throws Exception {
+    ChirpHub hub = server.injector().instanceOf(ChirpHub.class);
+    Probe<Chirp> probe = hub.subscribe(Collections.singleton(SLOW_USER))
+        .runWith(TestSink.probe(server.system()), server.materializer());
+
+    String warmUser = userOfTheSameTopic(SLOW_USER);
+    Probe<Chirp> warmProbe = hub.subscribe(Collections.singleton(warmUser))
+        .runWith(TestSink.probe(server.system()), server.materializer());
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      hub.publish(new Chirp(warmUser, "warm up"));
+      warmProbe.request(1);
+      warmProbe.expectNext();
+    });
+    warmProbe.cancel();
+    return probe;
+  }
+
+  private static List<Chirp> publish(TestServer server, int count) {
+    ChirpHub hub = server.injector().instanceOf(ChirpHub.class);
+    List<Chirp> chirps = new ArrayList<>();
+    for (int i = 1; i <= count; i++) {
+      Chirp chirp = new Chirp(SLOW_USER, "slow " + i);
+      hub.publish(chirp);
+      chirps.add(chirp);
+    }
+    return chirps;
+  }
+
+  private static String userOfTheSameTopic(String userId) {
+    String qualifier = ChirpHub.topicQualifier(userId);
+    for (int i = 0;; i++) {
+      String other = "warm" + i;
+      if (ChirpHub.topicQualifier(other).equals(qualifier))
+        return other;
+    }
+  }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
+import java.util.Arrays;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sample.chirper.chirp.api.Chirp;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.stream.testkit.TestSubscriber.Probe;
+import akka.stream.testkit.javadsl.TestSink;
+
+public class ChirpHubTest {
+
+  private static TestServer server;
+
+  @BeforeClass
+  public static void setUp() {
+    server = startServer(defaultSetup());
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    server.stop();
+    server = null;
+  }
+
+  @Test
+  public void shouldShareAndReleaseTopicSubscriptions() throws Exception {
+    ChirpHub hub = server.injector().instanceOf(ChirpHub.class);
+    ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+    String otherUser = userOfTheSameTopic("hub1");
+
+    Probe<Chirp> probe1 = subscribe(hub, "hub1");
+    Probe<Chirp> probe2 = subscribe(hub, otherUser);
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      assertEquals(2, metrics.getLiveStreams());
+      // both users are of the same topic
+      assertEquals(1, metrics.getTopicSubscriptions());
+      assertEquals(1, hub.runningTopicStreams());
+    });
+    receive(hub, probe1, "hub1");
+
+    probe1.cancel();
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      assertEquals(1, metrics.getLiveStreams());
+      assertEquals(1, metrics.getTopicSubscriptions());
+    });
+    receive(hub, probe2, otherUser);
+
+    // nothing is published to the topic anymore, the subscription stops anyway
+    probe2.cancel();
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      assertEquals(0, metrics.getLiveStreams());
+      assertEquals(0, metrics.getTopicSubscriptions());
+      assertEquals(0, hub.runningTopicStreams());
+    });
+
+    Probe<Chirp> probe3 = subscribe(hub, "hub1");
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      assertEquals(1, metrics.getTopicSubscriptions());
+      assertEquals(1, hub.runningTopicStreams());
+    });
+    receive(hub, probe3, "hub1");
+    probe3.cancel();
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      assertEquals(0, metrics.getTopicSubscriptions());
+      assertEquals(0, hub.runningTopicStreams());
+    });
+  }
+
+  @Test
+  public void shouldNotLeaveSubscriptionsOfQuietTopicsRunning() throws Exception {
+    ChirpHub hub = server.injector().instanceOf(ChirpHub.class);
+    for (int i = 0; i < 10; i++) {
+      subscribe(hub, "quiet" + i, "hub2").cancel();
+    }
+    eventually(FiniteDuration.create(10, SECONDS), () -> assertEquals(0, hub.runningTopicStreams()));
+  }
+
+  private static Probe<Chirp> subscribe(ChirpHub hub, String... userIds) {
+    Probe<Chirp> probe = hub.subscribe(Arrays.asList(userIds))
+        .runWith(TestSink.probe(server.system()), server.materializer());
+    probe.request(100);
+    return probe;
+  }
+
+  /**
+   * Publishes chirps of the user until the stream receives one, the topic
+   * subscription of a new stream takes a moment to be established.
+   */
+  private static void receive(ChirpHub hub, Probe<Chirp> probe, String userId) throws Exception {
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      hub.publish(new Chirp(userId, "hub"));
+      assertEquals(userId, probe.expectNext().userId);
+    });
+  }
+
+  private static String userOfTheSameTopic(String userId) {
+    String qualifier = ChirpHub.topicQualifier(userId);
+    for (int i = 0;; i++) {
+      String other = "other" + i;
+      if (ChirpHub.topicQualifier(other).equals(qualifier))
+        return other;
+    }
+  }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import sample.chirper.chirp.api.ChirpIds;
+
+public class ChirpIdsTest {
+
+  @Test
+  public void shouldCreateIncreasingIds() {
+    UUID previous = ChirpIds.next();
+    for (int i = 0; i < 100000; i++) {
+      UUID next = ChirpIds.next();
+      assertEquals(1, next.version());
+      assertTrue(next.timestamp() > previous.timestamp());
+      previous = next;
+    }
+  }
+
+  @Test
+  public void shouldKeepTheMillisecondOfTheTimestamp() {
+    Instant timestamp = Instant.ofEpochMilli(1460000000123L);
+    for (int i = 0; i < 20000; i++) {
+      assertEquals(timestamp.toEpochMilli(), ChirpIds.millis(ChirpIds.forTimestamp(timestamp)));
+    }
+  }
+
+  @Test
+  public void shouldCreateUniqueIdsForOneTimestamp() {
+    Instant timestamp = Instant.ofEpochMilli(1460000000456L);
+    Set<UUID> ids = new HashSet<>();
+    for (int i = 0; i < 25000; i++) {
+      UUID id = ChirpIds.forTimestamp(timestamp);
+      assertEquals(1, id.version());
+      assertEquals(timestamp.toEpochMilli(), ChirpIds.millis(id));
+      ids.add(id);
+    }
+    assertEquals(25000, ids.size());
+  }
+
+  @Test
+  public void shouldCreateUniqueIdsForAlternatingTimestamps() {
+    Instant timestamp1 = Instant.ofEpochMilli(1460000000789L);
+    Instant timestamp2 = timestamp1.plusMillis(1);
+    Set<UUID> ids = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      ids.add(ChirpIds.forTimestamp(timestamp1));
+      ids.add(ChirpIds.forTimestamp(timestamp2));
+    }
+    assertEquals(2000, ids.size());
+  }
+
+  @Test
+  public void shouldCreateIncreasingIdsForOneNewTimestamp() {
+    Instant timestamp = Instant.now().plusSeconds(3600);
+    UUID previous = ChirpIds.forTimestamp(timestamp);
+    for (int i = 0; i < 5000; i++) {
+      UUID next = ChirpIds.forTimestamp(timestamp);
+      assertTrue(next.timestamp() > previous.timestamp());
+      previous = next;
+    }
+  }
+
+}
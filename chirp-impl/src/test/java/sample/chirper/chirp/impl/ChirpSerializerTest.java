@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import sample.chirper.chirp.api.Chirp;
+
+public class ChirpSerializerTest {
+
+  private final ChirpSerializer serializer = new ChirpSerializer();
+
+  private Chirp roundTrip(Chirp chirp) {
+    byte[] bytes = serializer.toBinary(chirp);
+    return (Chirp) serializer.fromBinary(bytes, serializer.manifest(chirp));
+  }
+
+  @Test
+  public void shouldRoundTripChirpWithTimeBasedId() {
+    Chirp chirp = new Chirp("usr1", "hello");
+    assertEquals(chirp, roundTrip(chirp));
+  }
+
+  @Test
+  public void shouldRoundTripChirpWithRandomUuid() {
+    Chirp chirp = new Chirp("usr1", "hello", Optional.of(Instant.now()),
+        Optional.of(UUID.randomUUID().toString()));
+    assertEquals(chirp, roundTrip(chirp));
+  }
+
+  @Test
+  public void shouldRoundTripChirpWithAnyIdAndTimestamp() {
+    Chirp chirp = new Chirp("usré", "héllo 🐦", Optional.of(Instant.ofEpochSecond(-1, 123456789)),
+        Optional.of("F81D4FAE-7DEC-11D0-A765-00A0C91E6BF6"));
+    assertEquals(chirp, roundTrip(chirp));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectTruncatedChirp() {
+    Chirp chirp = new Chirp("usr1", "hello");
+    byte[] bytes = serializer.toBinary(chirp);
+    byte[] truncated = new byte[bytes.length - 3];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    serializer.fromBinary(truncated, serializer.manifest(chirp));
+  }
+
+}
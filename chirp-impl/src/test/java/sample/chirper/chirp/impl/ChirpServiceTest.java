@@ -5,14 +5,22 @@ package sample.chirper.chirp.impl;
 
 import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpPage;
 import sample.chirper.chirp.api.ChirpService;
 import sample.chirper.chirp.api.HistoricalChirpsRequest;
 import sample.chirper.chirp.api.LiveChirpsRequest;
@@ -23,7 +31,7 @@ import akka.stream.testkit.javadsl.TestSink;
 
 public class ChirpServiceTest {
 
-  private static TestServer server;
+  static TestServer server;
 
   @BeforeClass
   public static void setUp() {
@@ -89,6 +97,55 @@ public class ChirpServiceTest {
     probe.cancel();
   }
 
+  @Test
+  public void shouldResumeLiveChirpsAfterLastReceivedChirp() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+
+    Chirp chirp1 = new Chirp("usr12", "resume 1");
+    chirpService.addChirp().invoke("usr12", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr12", "resume 2");
+    chirpService.addChirp().invoke("usr12", chirp2).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp3 = new Chirp("usr13", "resume 3");
+    chirpService.addChirp().invoke("usr13", chirp3).toCompletableFuture().get(3, SECONDS);
+
+    LiveChirpsRequest request = new LiveChirpsRequest(TreePVector.<String>empty().plus("usr12").plus("usr13"),
+        Optional.of(chirp1.uuid));
+    Source<Chirp, ?> chirps = chirpService.getLiveChirps().invoke(request).toCompletableFuture().get(3, SECONDS);
+    Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+    probe.request(10);
+    probe.expectNextUnordered(chirp2, chirp3);
+
+    Chirp chirp4 = new Chirp("usr13", "resume 4");
+    chirpService.addChirp().invoke("usr13", chirp4).toCompletableFuture().get(3, SECONDS);
+    probe.expectNext(chirp4);
+
+    probe.cancel();
+  }
+
+  @Test
+  public void shouldBatchLiveChirps() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+
+    Chirp chirp1 = new Chirp("usr11", "batch 1");
+    chirpService.addChirp().invoke("usr11", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr11", "batch 2");
+    chirpService.addChirp().invoke("usr11", chirp2).toCompletableFuture().get(3, SECONDS);
+
+    LiveChirpsRequest request = new LiveChirpsRequest(TreePVector.<String>empty().plus("usr11"));
+    Source<PSequence<Chirp>, ?> batches = chirpService.getLiveChirpBatches().invoke(request)
+        .toCompletableFuture().get(3, SECONDS);
+    Probe<PSequence<Chirp>> probe = batches.runWith(TestSink.probe(server.system()), server.materializer());
+    probe.request(10);
+    // the recent chirps are available at once, so they end up in one batch
+    assertEquals(TreePVector.<Chirp>empty().plus(chirp1).plus(chirp2), probe.expectNext());
+
+    Chirp chirp3 = new Chirp("usr11", "batch 3");
+    chirpService.addChirp().invoke("usr11", chirp3).toCompletableFuture().get(3, SECONDS);
+    assertEquals(TreePVector.singleton(chirp3), probe.expectNext());
+
+    probe.cancel();
+  }
+
   @Test
   public void shouldRetrieveOldChirps() throws Exception {
     ChirpService chirpService = server.client(ChirpService.class);
@@ -108,6 +165,81 @@ public class ChirpServiceTest {
     probe.expectComplete();
   }
 
+  @Test
+  public void shouldPageThroughOldChirps() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+
+    Instant now = Instant.now();
+    Chirp chirp1 = new Chirp("usr7", "page 1", Optional.of(now.minusSeconds(3)), Optional.empty());
+    chirpService.addChirp().invoke("usr7", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr8", "page 2", Optional.of(now.minusSeconds(2)), Optional.empty());
+    chirpService.addChirp().invoke("usr8", chirp2).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp3 = new Chirp("usr7", "page 3", Optional.of(now.minusSeconds(1)), Optional.empty());
+    chirpService.addChirp().invoke("usr7", chirp3).toCompletableFuture().get(3, SECONDS);
+
+    TreePVector<String> userIds = TreePVector.<String>empty().plus("usr7").plus("usr8");
+    HistoricalChirpsRequest request1 = new HistoricalChirpsRequest(now.minusSeconds(20), userIds,
+        Optional.empty(), Optional.empty(), Optional.of(2), Optional.empty());
+    ChirpPage page1 = chirpService.getHistoricalChirpsPage().invoke(request1).toCompletableFuture().get(3, SECONDS);
+    assertEquals(TreePVector.empty().plus(chirp1).plus(chirp2), page1.chirps);
+    assertTrue(page1.nextCursor.isPresent());
+
+    HistoricalChirpsRequest request2 = new HistoricalChirpsRequest(now.minusSeconds(20), userIds,
+        Optional.empty(), Optional.empty(), Optional.of(2), page1.nextCursor);
+    ChirpPage page2 = chirpService.getHistoricalChirpsPage().invoke(request2).toCompletableFuture().get(3, SECONDS);
+    assertEquals(TreePVector.singleton(chirp3), page2.chirps);
+    assertFalse(page2.nextCursor.isPresent());
+  }
 
+  @Test
+  public void shouldBoundOldChirpsByTimeAndCount() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+
+    Instant now = Instant.now();
+    Chirp chirp1 = new Chirp("usr9", "bound 1", Optional.of(now.minusSeconds(30)), Optional.empty());
+    chirpService.addChirp().invoke("usr9", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr9", "bound 2", Optional.of(now.minusSeconds(20)), Optional.empty());
+    chirpService.addChirp().invoke("usr9", chirp2).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp3 = new Chirp("usr9", "bound 3", Optional.of(now.minusSeconds(10)), Optional.empty());
+    chirpService.addChirp().invoke("usr9", chirp3).toCompletableFuture().get(3, SECONDS);
+
+    HistoricalChirpsRequest request = new HistoricalChirpsRequest(now.minusSeconds(25),
+        TreePVector.singleton("usr9"), Optional.of(now), Optional.of(1), Optional.empty(), Optional.empty());
+    Source<Chirp, ?> chirps = chirpService.getHistoricalChirps().invoke(request).toCompletableFuture().get(3, SECONDS);
+    Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+    probe.request(10);
+    probe.expectNext(chirp2);
+    probe.expectComplete();
+  }
+
+  @Test
+  public void shouldReadAllOldChirpsOfAUserWithMoreThanTheGroupReads() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+    ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+
+    // the two users are read with one multi-partition query of at most
+    // 2 * 100 chirps (history.page-size), usr14 has more chirps than that
+    Instant start = Instant.now().minusSeconds(600);
+    List<Chirp> expected = new ArrayList<>();
+    for (int i = 0; i < 210; i++) {
+      String userId = i % 70 == 0 ? "usr15" : "usr14";
+      Chirp chirp = new Chirp(userId, "group " + i, Optional.of(start.plusSeconds(i)), Optional.empty());
+      chirpService.addChirp().invoke(userId, chirp).toCompletableFuture().get(3, SECONDS);
+      expected.add(chirp);
+    }
+
+    long partitionReads = metrics.getPartitionReads();
+    HistoricalChirpsRequest request = new HistoricalChirpsRequest(start.minusSeconds(1),
+        TreePVector.<String>empty().plus("usr14").plus("usr15"));
+    Source<Chirp, ?> chirps = chirpService.getHistoricalChirps().invoke(request).toCompletableFuture().get(3, SECONDS);
+    Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+    probe.request(expected.size() + 1);
+    for (Chirp chirp : expected) {
+      probe.expectNext(chirp);
+    }
+    probe.expectComplete();
+    // the rest of the cut off partition was paged through
+    assertTrue(metrics.getPartitionReads() > partitionReads);
+  }
 
 }
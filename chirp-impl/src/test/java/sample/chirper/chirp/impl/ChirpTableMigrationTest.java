@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.typesafe.config.ConfigFactory;
+
+import play.Configuration;
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpService;
+
+public class ChirpTableMigrationTest {
+
+  @Test
+  public void shouldCopyChirpsIntoTheBucketedTable() throws Exception {
+    withServer(defaultSetup(), server -> {
+      ChirpService chirpService = server.client(ChirpService.class);
+      Instant now = Instant.now();
+      Chirp chirp1 = new Chirp("usr1", "old", Optional.of(now.minusSeconds(2 * 24 * 3600)), Optional.empty());
+      chirpService.addChirp().invoke("usr1", chirp1).toCompletableFuture().get(10, SECONDS);
+      Chirp chirp2 = new Chirp("usr1", "new", Optional.of(now.minusSeconds(1)), Optional.empty());
+      chirpService.addChirp().invoke("usr1", chirp2).toCompletableFuture().get(3, SECONDS);
+
+      // the service runs the single layout, the migration copies into a bucketed one
+      ChirpSettings settings = new ChirpSettings(new Configuration(ConfigFactory.parseString(
+          "chirp.storage.layout = bucketed").withFallback(ConfigFactory.load())));
+      CassandraSession db = server.injector().instanceOf(CassandraSession.class);
+      ChirpTable bucketed = new ChirpTable(db, settings);
+      ChirpTableMigration migration = new ChirpTableMigration(db, bucketed, server.materializer(), settings);
+      bucketed.createTables().toCompletableFuture().get(10, SECONDS);
+
+      migration.migrateIfNeeded().toCompletableFuture().get(10, SECONDS);
+      assertEquals(Arrays.asList(chirp1, chirp2),
+          bucketed.readRecent("usr1", 10).toCompletableFuture().get(3, SECONDS));
+
+      // a completed migration doesn't run again
+      Chirp chirp3 = new Chirp("usr1", "after", Optional.of(now), Optional.empty());
+      chirpService.addChirp().invoke("usr1", chirp3).toCompletableFuture().get(3, SECONDS);
+      migration.migrateIfNeeded().toCompletableFuture().get(10, SECONDS);
+      assertEquals(Arrays.asList(chirp1, chirp2),
+          bucketed.readRecent("usr1", 10).toCompletableFuture().get(3, SECONDS));
+    });
+  }
+
+}
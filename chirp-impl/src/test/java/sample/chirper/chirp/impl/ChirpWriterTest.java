@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import sample.chirper.chirp.api.Chirp;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.Done;
+
+/**
+ * The writes of each test are queued well within the linger time, so that
+ * they end up in one batch.
+ */
+public class ChirpWriterTest {
+
+  private static final int QUEUE_DEPTH = 5;
+
+  private static TestServer server;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    server = startServer(defaultSetup().withConfigureBuilder(b -> b
+        .configure("chirp.write-behind.linger", "2 s")
+        .configure("chirp.write-behind.queue-depth", QUEUE_DEPTH)));
+    // the chirp table is created when the service starts
+    ChirpWriter writer = server.injector().instanceOf(ChirpWriter.class);
+    eventually(FiniteDuration.create(20, SECONDS), () ->
+        writer.write(new Chirp("warmup", "warm up")).toCompletableFuture().get(5, SECONDS));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    server.stop();
+    server = null;
+  }
+
+  @Test
+  public void shouldWriteQueuedChirpsInOneBatch() throws Exception {
+    ChirpWriter writer = server.injector().instanceOf(ChirpWriter.class);
+    ChirpTable table = server.injector().instanceOf(ChirpTable.class);
+    ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+    long batches = metrics.getChirpBatchesWritten();
+    long written = metrics.getChirpsWritten();
+
+    List<Chirp> chirps1 = Arrays.asList(new Chirp("wr1", "one"), new Chirp("wr1", "two"), new Chirp("wr1", "three"));
+    List<Chirp> chirps2 = Arrays.asList(new Chirp("wr2", "one"), new Chirp("wr2", "two"));
+    List<CompletableFuture<Done>> results = write(writer, chirps1);
+    results.addAll(write(writer, chirps2));
+    for (CompletableFuture<Done> result : results) {
+      result.get(10, SECONDS);
+    }
+
+    assertEquals(batches + 1, metrics.getChirpBatchesWritten());
+    assertEquals(written + 5, metrics.getChirpsWritten());
+    assertEquals(chirps1, table.readRecent("wr1", 10).toCompletableFuture().get(3, SECONDS));
+    assertEquals(chirps2, table.readRecent("wr2", 10).toCompletableFuture().get(3, SECONDS));
+  }
+
+  @Test
+  public void shouldRejectWritesBeyondTheQueueDepth() throws Exception {
+    ChirpWriter writer = server.injector().instanceOf(ChirpWriter.class);
+    ChirpMetrics metrics = server.injector().instanceOf(ChirpMetrics.class);
+    long rejected = metrics.getChirpWritesRejected();
+
+    List<CompletableFuture<Done>> queued = new ArrayList<>();
+    for (int i = 0; i < QUEUE_DEPTH; i++) {
+      queued.add(writer.write(new Chirp("wr3", "queued " + i)).toCompletableFuture());
+    }
+    CompletableFuture<Done> overflow = writer.write(new Chirp("wr3", "overflow")).toCompletableFuture();
+    // rejected right away, not when the queue drained
+    assertTrue(overflow.isCompletedExceptionally());
+    assertTrue(failure(overflow) instanceof IllegalStateException);
+    assertEquals(rejected + 1, metrics.getChirpWritesRejected());
+
+    for (CompletableFuture<Done> result : queued) {
+      result.get(10, SECONDS);
+    }
+    // the drained queue accepts writes again
+    writer.write(new Chirp("wr3", "after")).toCompletableFuture().get(10, SECONDS);
+    assertEquals(0, metrics.getChirpWriteQueueDepth());
+  }
+
+  @Test
+  public void shouldFailEveryWriteToAFailedPartition() throws Exception {
+    ChirpWriter writer = server.injector().instanceOf(ChirpWriter.class);
+    ChirpTable table = server.injector().instanceOf(ChirpTable.class);
+
+    // Cassandra rejects the empty partition key, the other partition of the
+    // batch is written with its own statement
+    List<CompletableFuture<Done>> failing = write(writer,
+        Arrays.asList(new Chirp("", "one"), new Chirp("", "two")));
+    Chirp chirp = new Chirp("wr4", "one");
+    writer.write(chirp).toCompletableFuture().get(10, SECONDS);
+
+    for (CompletableFuture<Done> result : failing) {
+      failure(result);
+    }
+    assertEquals(Arrays.asList(chirp), table.readRecent("wr4", 10).toCompletableFuture().get(3, SECONDS));
+  }
+
+  @Test
+  public void shouldFailEveryWriteOfABatchThatCantBeWritten() throws Exception {
+    CassandraSession db = server.injector().instanceOf(CassandraSession.class);
+    ChirpSettings settings = server.injector().instanceOf(ChirpSettings.class);
+    ChirpTable missingTable = new ChirpTable(db, settings) {
+      @Override
+      public String insertStatement() {
+        return "INSERT INTO missing_chirp (userId, timestamp, uuid, message) VALUES (?, ?, ?, ?)";
+      }
+    };
+    ChirpMetrics metrics = new ChirpMetrics();
+    ChirpWriter writer = new ChirpWriter(db, missingTable, server.materializer(), settings, metrics);
+
+    List<CompletableFuture<Done>> results = write(writer,
+        Arrays.asList(new Chirp("wr5", "one"), new Chirp("wr5", "two"), new Chirp("wr6", "three")));
+    for (CompletableFuture<Done> result : results) {
+      failure(result);
+    }
+    assertEquals(1, metrics.getChirpBatchesWritten());
+    assertEquals(0, metrics.getChirpWriteQueueDepth());
+  }
+
+  private static List<CompletableFuture<Done>> write(ChirpWriter writer, List<Chirp> chirps) {
+    List<CompletableFuture<Done>> results = new ArrayList<>();
+    for (Chirp chirp : chirps) {
+      results.add(writer.write(chirp).toCompletableFuture());
+    }
+    return results;
+  }
+
+  private static Throwable failure(CompletableFuture<Done> result) throws Exception {
+    try {
+      result.get(10, SECONDS);
+      fail("Expected the write to fail");
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.JavaTestKit;
+
+public class DeduplicateTest {
+
+  static ActorSystem system;
+  static Materializer materializer;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create("DeduplicateTest");
+    materializer = ActorMaterializer.create(system);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    JavaTestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  @Test
+  public void shouldDropDuplicates() throws Exception {
+    AtomicInteger duplicates = new AtomicInteger();
+    List<String> result = Source.from(Arrays.asList("a", "b", "a", "c", "b", "a"))
+        .via(Deduplicate.flow((String s) -> s, 10, Duration.ofMinutes(1), duplicates::incrementAndGet))
+        .grouped(100).runWith(Sink.head(), materializer).toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList("a", "b", "c"), result);
+    assertEquals(3, duplicates.get());
+  }
+
+  @Test
+  public void shouldForgetOldestKeysWhenFull() throws Exception {
+    AtomicInteger duplicates = new AtomicInteger();
+    List<String> result = Source.from(Arrays.asList("a", "b", "c", "a", "c"))
+        .via(Deduplicate.flow((String s) -> s, 2, Duration.ofMinutes(1), duplicates::incrementAndGet))
+        .grouped(100).runWith(Sink.head(), materializer).toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList("a", "b", "c", "a"), result);
+    assertEquals(1, duplicates.get());
+  }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PartitionReadLimiterTest {
+
+  @Test
+  public void shouldStartQueuedReadsInSubmissionOrder() throws Exception {
+    ChirpMetrics metrics = new ChirpMetrics();
+    PartitionReadLimiter limiter = new PartitionReadLimiter(2, metrics);
+    List<Integer> started = new ArrayList<>();
+    List<CompletableFuture<Integer>> reads = new ArrayList<>();
+    List<CompletionStage<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      int read = i;
+      CompletableFuture<Integer> future = new CompletableFuture<>();
+      reads.add(future);
+      results.add(limiter.submit(() -> {
+        started.add(read);
+        return future;
+      }));
+    }
+    assertEquals(Arrays.asList(0, 1), started);
+    assertEquals(2, metrics.getInFlightPartitionReads());
+    assertEquals(3, metrics.getQueuedPartitionReads());
+
+    reads.get(1).complete(1);
+    assertEquals(Arrays.asList(0, 1, 2), started);
+    reads.get(0).complete(0);
+    assertEquals(Arrays.asList(0, 1, 2, 3), started);
+    reads.get(3).complete(3);
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), started);
+    assertEquals(0, metrics.getQueuedPartitionReads());
+
+    reads.get(2).complete(2);
+    reads.get(4).complete(4);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(Integer.valueOf(i), results.get(i).toCompletableFuture().get());
+    }
+    assertEquals(0, metrics.getInFlightPartitionReads());
+  }
+
+  @Test
+  public void shouldReleaseTheSlotOfAFailedRead() throws Exception {
+    ChirpMetrics metrics = new ChirpMetrics();
+    PartitionReadLimiter limiter = new PartitionReadLimiter(1, metrics);
+    CompletableFuture<String> failing = new CompletableFuture<>();
+    CompletionStage<String> failed = limiter.submit(() -> failing);
+    CompletionStage<String> next = limiter.submit(() -> CompletableFuture.completedFuture("next"));
+    assertFalse(next.toCompletableFuture().isDone());
+
+    IllegalStateException error = new IllegalStateException("read failed");
+    failing.completeExceptionally(error);
+    assertEquals(error, failure(failed));
+    assertEquals("next", next.toCompletableFuture().get());
+    assertEquals(0, metrics.getInFlightPartitionReads());
+    assertEquals(0, metrics.getQueuedPartitionReads());
+  }
+
+  @Test
+  public void shouldReleaseTheSlotOfAReadThatThrows() throws Exception {
+    ChirpMetrics metrics = new ChirpMetrics();
+    PartitionReadLimiter limiter = new PartitionReadLimiter(1, metrics);
+    CompletableFuture<String> running = new CompletableFuture<>();
+    limiter.submit(() -> running);
+    IllegalStateException error = new IllegalStateException("no session");
+    CompletionStage<String> thrown = limiter.submit(() -> {
+      throw error;
+    });
+    CompletionStage<String> next = limiter.submit(() -> CompletableFuture.completedFuture("next"));
+
+    // the throwing read is started by the release of the running one
+    running.complete("running");
+    assertEquals(error, failure(thrown));
+    assertEquals("next", next.toCompletableFuture().get());
+    assertEquals(0, metrics.getInFlightPartitionReads());
+
+    // and when a slot is free right away
+    assertEquals(error, failure(limiter.submit(() -> {
+      throw error;
+    })));
+    assertEquals("after", limiter.submit(() -> CompletableFuture.completedFuture("after"))
+        .toCompletableFuture().get());
+    assertEquals(0, metrics.getInFlightPartitionReads());
+  }
+
+  @Test
+  public void shouldNeverRunMoreThanTheMaximumOfReads() throws Exception {
+    int maxConcurrentReads = 3;
+    PartitionReadLimiter limiter = new PartitionReadLimiter(maxConcurrentReads, new ChirpMetrics());
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<CompletableFuture<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        int read = i;
+        results.add(limiter.<Integer>submit(() -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          return CompletableFuture.supplyAsync(() -> {
+            running.decrementAndGet();
+            return read;
+          }, executor);
+        }).toCompletableFuture());
+      }
+      for (int i = 0; i < 200; i++) {
+        assertEquals(Integer.valueOf(i), results.get(i).get(10, TimeUnit.SECONDS));
+      }
+      assertTrue("at most " + maxConcurrentReads + " reads ran at once, but " + maxRunning.get() + " did",
+          maxRunning.get() <= maxConcurrentReads);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectLessThanOneRead() {
+    new PartitionReadLimiter(0, new ChirpMetrics());
+  }
+
+  private static Throwable failure(CompletionStage<?> stage) throws InterruptedException {
+    try {
+      stage.toCompletableFuture().get();
+      fail("Expected the read to fail");
+      return null;
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.typesafe.config.ConfigFactory;
+
+import play.Configuration;
+import sample.chirper.chirp.api.Chirp;
+
+public class RecentChirpCacheTest {
+
+  private static RecentChirpCache cache(String unsubscribedTtl, String settleTime) {
+    ChirpSettings settings = new ChirpSettings(new Configuration(ConfigFactory.parseString(
+        "chirp.recent-cache.unsubscribed-ttl = " + unsubscribedTtl + "\n"
+        + "chirp.recent-cache.subscription-settle-time = " + settleTime)
+        .withFallback(ConfigFactory.load())));
+    return new RecentChirpCache(settings, new ChirpMetrics());
+  }
+
+  @Test
+  public void shouldMergeChirpsAddedWhileLoading() {
+    RecentChirpCache cache = cache("1 minute", "0 ms");
+    Chirp older = new Chirp("usr1", "older");
+    Chirp newer = new Chirp("usr1", "newer");
+
+    RecentChirpCache.Load load = cache.startLoad("usr1");
+    cache.add(newer);
+    assertEquals(Arrays.asList(older, newer), cache.completeLoad(load, Collections.singletonList(older)));
+    assertEquals(Optional.of(Arrays.asList(older, newer)), cache.get("usr1"));
+  }
+
+  @Test
+  public void shouldNotMergeChirpsAfterAnAbandonedLoad() {
+    RecentChirpCache cache = cache("1 minute", "0 ms");
+    RecentChirpCache.Load load = cache.startLoad("usr1");
+    cache.abandonLoad(load);
+    cache.add(new Chirp("usr1", "hello"));
+    assertFalse(cache.get("usr1").isPresent());
+  }
+
+  @Test
+  public void shouldTrustEntriesLoadedAfterTheSubscriptionSettled() {
+    RecentChirpCache cache = cache("0 ms", "0 ms");
+    cache.subscribed(ChirpHub.topicQualifier("usr1"));
+    Chirp chirp = new Chirp("usr1", "hello");
+    cache.completeLoad(cache.startLoad("usr1"), Collections.singletonList(chirp));
+    assertEquals(Optional.of(Collections.singletonList(chirp)), cache.get("usr1"));
+  }
+
+  @Test
+  public void shouldNotTrustEntriesLoadedBeforeTheSubscription() {
+    RecentChirpCache cache = cache("0 ms", "0 ms");
+    cache.completeLoad(cache.startLoad("usr1"), Collections.singletonList(new Chirp("usr1", "hello")));
+    cache.subscribed(ChirpHub.topicQualifier("usr1"));
+    assertFalse(cache.get("usr1").isPresent());
+  }
+
+  @Test
+  public void shouldNotTrustEntriesLoadedBeforeTheSubscriptionSettled() {
+    RecentChirpCache cache = cache("0 ms", "1 hour");
+    cache.subscribed(ChirpHub.topicQualifier("usr1"));
+    cache.completeLoad(cache.startLoad("usr1"), Collections.singletonList(new Chirp("usr1", "hello")));
+    assertFalse(cache.get("usr1").isPresent());
+  }
+
+}
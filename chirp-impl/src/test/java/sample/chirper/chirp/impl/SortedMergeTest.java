@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.testkit.JavaTestKit;
+import sample.chirper.chirp.api.Chirp;
+
+public class SortedMergeTest {
+
+  static ActorSystem system;
+  static Materializer materializer;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create("SortedMergeTest");
+    materializer = ActorMaterializer.create(system);
+  }
+
+  @AfterClass
+  public static void teardown() {
+    JavaTestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  @Test
+  public void shouldMergeSortedSourcesInOrder() throws Exception {
+    List<Source<Integer, ?>> sources = Arrays.asList(
+        Source.from(Arrays.asList(1, 4, 7, 10)),
+        Source.from(Arrays.asList(2, 5, 8)),
+        Source.from(Arrays.asList(3, 6, 9, 11, 12)));
+    List<Integer> merged = SortedMerge.merge(sources, Comparator.<Integer>naturalOrder(), 2)
+        .grouped(100).runWith(Sink.head(), materializer).toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12), merged);
+  }
+
+  @Test
+  public void shouldHandleEmptySources() throws Exception {
+    List<Source<Integer, ?>> sources = Arrays.asList(
+        Source.empty(),
+        Source.from(Arrays.asList(2, 3)),
+        Source.empty());
+    List<Integer> merged = SortedMerge.merge(sources, Comparator.<Integer>naturalOrder(), 1)
+        .grouped(100).runWith(Sink.head(), materializer).toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList(2, 3), merged);
+  }
+
+  @Test
+  public void shouldOrderChirpsByTimestampThenUuid() throws Exception {
+    Instant t = Instant.ofEpochMilli(1000);
+    Chirp a1 = new Chirp("a", "a1", Optional.of(t), Optional.of("2"));
+    Chirp a2 = new Chirp("a", "a2", Optional.of(t.plusMillis(2)), Optional.of("1"));
+    Chirp b1 = new Chirp("b", "b1", Optional.of(t), Optional.of("1"));
+    Chirp b2 = new Chirp("b", "b2", Optional.of(t.plusMillis(1)), Optional.of("1"));
+    List<Source<Chirp, ?>> sources = Arrays.asList(
+        Source.from(Arrays.asList(a1, a2)),
+        Source.from(Arrays.asList(b1, b2)));
+    List<Chirp> merged = SortedMerge.merge(sources, Chirp.TIMESTAMP_ORDER, 16)
+        .grouped(100).runWith(Sink.head(), materializer).toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList(b1, a1, b2, a2), merged);
+  }
+
+}
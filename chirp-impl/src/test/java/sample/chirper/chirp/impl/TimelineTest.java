@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.lightbend.lagom.javadsl.api.ServiceCall;
+import com.lightbend.lagom.javadsl.testkit.ServiceTest.TestServer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Optional;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpService;
+import sample.chirper.chirp.api.TimelineRequest;
+import sample.chirper.friend.api.FollowersPage;
+import sample.chirper.friend.api.FollowersPageRequest;
+import sample.chirper.friend.api.FriendId;
+import sample.chirper.friend.api.FriendIds;
+import sample.chirper.friend.api.FriendService;
+import sample.chirper.friend.api.User;
+import scala.concurrent.duration.FiniteDuration;
+
+import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.stream.testkit.TestSubscriber.Probe;
+import akka.stream.testkit.javadsl.TestSink;
+
+public class TimelineTest {
+
+  private static TestServer server;
+
+  @BeforeClass
+  public static void setUp() {
+    server = startServer(defaultSetup().withConfigureBuilder(b -> b
+        .overrides(bind(FriendService.class).to(FriendServiceStub.class))
+        .configure("chirp.timeline.enabled", true)
+        .configure("chirp.timeline.celebrity-threshold", 2)));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    server.stop();
+    server = null;
+  }
+
+  @Test
+  public void shouldFanOutChirpsToFollowerTimelines() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+    Instant now = Instant.now();
+    Chirp chirp1 = new Chirp("usr1", "fan out 1", Optional.of(now.minusSeconds(2)), Optional.empty());
+    chirpService.addChirp().invoke("usr1", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr2", "fan out 2", Optional.of(now.minusSeconds(1)), Optional.empty());
+    chirpService.addChirp().invoke("usr2", chirp2).toCompletableFuture().get(3, SECONDS);
+
+    TimelineRequest request = new TimelineRequest(now.minusSeconds(20), Optional.empty(), Optional.empty());
+    // the fan-out is asynchronous
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      Source<Chirp, ?> chirps = chirpService.getTimeline().invoke("usr2", request)
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      probe.expectNext(chirp1);
+      probe.expectNext(chirp2);
+      probe.expectComplete();
+    });
+  }
+
+  @Test
+  public void shouldMergeCelebrityChirpsIntoTimelines() throws Exception {
+    ChirpService chirpService = server.client(ChirpService.class);
+    Instant now = Instant.now();
+    Chirp chirp1 = new Chirp("usr3", "celebrity 1", Optional.of(now.minusSeconds(2)), Optional.empty());
+    chirpService.addChirp().invoke("usr3", chirp1).toCompletableFuture().get(3, SECONDS);
+    Chirp chirp2 = new Chirp("usr4", "celebrity 2", Optional.of(now.minusSeconds(1)), Optional.empty());
+    chirpService.addChirp().invoke("usr4", chirp2).toCompletableFuture().get(3, SECONDS);
+
+    TimelineRequest request = new TimelineRequest(now.minusSeconds(20), Optional.empty(), Optional.empty(),
+        Optional.of(TreePVector.singleton("usr3")));
+    eventually(FiniteDuration.create(10, SECONDS), () -> {
+      Source<Chirp, ?> chirps = chirpService.getTimeline().invoke("usr4", request)
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<Chirp> probe = chirps.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      probe.expectNext(chirp1);
+      probe.expectNext(chirp2);
+      probe.expectComplete();
+    });
+  }
+
+  static class FriendServiceStub implements FriendService {
+
+    @Override
+    public ServiceCall<String, NotUsed, User> getUser() {
+      return (id, req) -> completedFuture(new User(id, id));
+    }
+
+    @Override
+    public ServiceCall<NotUsed, User, NotUsed> createUser() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, FriendId, NotUsed> addFriend() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, FriendIds, NotUsed> addFriends() {
+      return (id, req) -> completedFuture(NotUsed.getInstance());
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, PSequence<String>> getFollowers() {
+      // the fan-out must not load all followers of an author
+      return (id, req) -> {
+        throw new UnsupportedOperationException("getFollowers");
+      };
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<String, ?>> getFollowersStream() {
+      return (id, req) -> {
+        if (id.equals("usr1"))
+          return completedFuture(Source.single("usr2"));
+        else if (id.equals("usr3"))
+          return completedFuture(Source.from(Arrays.asList("usr4", "usr5")));
+        else
+          return completedFuture(Source.empty());
+      };
+    }
+
+    @Override
+    public ServiceCall<String, FollowersPageRequest, FollowersPage> getFollowersPage() {
+      return (id, req) -> completedFuture(new FollowersPage(TreePVector.empty(), Optional.empty()));
+    }
+
+    @Override
+    public ServiceCall<String, NotUsed, Source<FriendId, ?>> getFriendChanges() {
+      return (id, req) -> completedFuture(Source.empty());
+    }
+  }
+
+}
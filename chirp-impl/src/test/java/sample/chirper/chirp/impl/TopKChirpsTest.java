@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.chirp.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+import org.pcollections.PSequence;
+
+import sample.chirper.chirp.api.Chirp;
+
+public class TopKChirpsTest {
+
+  private static final Instant T = Instant.ofEpochMilli(1000);
+
+  private static Chirp chirp(String userId, int millis, String uuid) {
+    return new Chirp(userId, userId + millis, Optional.of(T.plusMillis(millis)), Optional.of(uuid));
+  }
+
+  @Test
+  public void shouldSelectTheNewestChirpsOldestFirst() throws Exception {
+    Chirp a1 = chirp("a", 1, "1");
+    Chirp a5 = chirp("a", 5, "1");
+    Chirp a9 = chirp("a", 9, "1");
+    Chirp b2 = chirp("b", 2, "1");
+    Chirp b7 = chirp("b", 7, "1");
+    Chirp c3 = chirp("c", 3, "1");
+    Chirp c8 = chirp("c", 8, "1");
+    List<CompletableFuture<List<Chirp>>> results = Arrays.asList(
+        CompletableFuture.completedFuture(Arrays.asList(a1, a5, a9)),
+        CompletableFuture.completedFuture(Arrays.asList(b2, b7)),
+        CompletableFuture.completedFuture(Arrays.asList(c8, c3)));
+    assertEquals(Arrays.asList(a5, b7, c8, a9), newest(4, results));
+  }
+
+  @Test
+  public void shouldCompleteWhenTheLastResultArrives() throws Exception {
+    Chirp a1 = chirp("a", 1, "1");
+    Chirp b2 = chirp("b", 2, "1");
+    CompletableFuture<List<Chirp>> first = new CompletableFuture<>();
+    CompletableFuture<List<Chirp>> second = new CompletableFuture<>();
+    CompletionStage<PSequence<Chirp>> newest = TopKChirps.newest(10, Arrays.asList(first, second));
+
+    second.complete(Collections.singletonList(b2));
+    assertFalse(newest.toCompletableFuture().isDone());
+    first.complete(Collections.singletonList(a1));
+    assertEquals(Arrays.asList(a1, b2), newest.toCompletableFuture().get(3, SECONDS));
+  }
+
+  @Test
+  public void shouldReturnAllChirpsWhenThereAreFewerThanK() throws Exception {
+    Chirp a3 = chirp("a", 3, "1");
+    Chirp b1 = chirp("b", 1, "1");
+    List<CompletableFuture<List<Chirp>>> results = Arrays.asList(
+        CompletableFuture.completedFuture(Collections.singletonList(a3)),
+        CompletableFuture.completedFuture(Collections.<Chirp>emptyList()),
+        CompletableFuture.completedFuture(Collections.singletonList(b1)));
+    assertEquals(Arrays.asList(b1, a3), newest(10, results));
+    assertEquals(Collections.emptyList(), newest(10, Collections.<CompletableFuture<List<Chirp>>>emptyList()));
+    assertEquals(Collections.emptyList(), newest(0, results));
+  }
+
+  @Test
+  public void shouldOrderChirpsOfTheSameTimestampByUuid() throws Exception {
+    Chirp a1 = chirp("a", 5, "1");
+    Chirp b2 = chirp("b", 5, "2");
+    Chirp c3 = chirp("c", 5, "3");
+    Chirp d4 = chirp("d", 5, "4");
+    List<CompletableFuture<List<Chirp>>> results = Arrays.asList(
+        CompletableFuture.completedFuture(Arrays.asList(c3, a1)),
+        CompletableFuture.completedFuture(Arrays.asList(d4, b2)));
+    assertEquals(Arrays.asList(c3, d4), newest(2, results));
+  }
+
+  @Test
+  public void shouldFailWhenAResultFails() throws Exception {
+    IllegalStateException error = new IllegalStateException("read failed");
+    CompletableFuture<List<Chirp>> failed = new CompletableFuture<>();
+    failed.completeExceptionally(error);
+    List<CompletableFuture<List<Chirp>>> results = Arrays.asList(
+        CompletableFuture.completedFuture(Collections.singletonList(chirp("a", 1, "1"))),
+        failed,
+        CompletableFuture.completedFuture(Collections.singletonList(chirp("b", 2, "1"))));
+    try {
+      TopKChirps.newest(10, results).toCompletableFuture().get(3, SECONDS);
+      fail("Expected the selection to fail");
+    } catch (ExecutionException e) {
+      assertEquals(error, e.getCause());
+    }
+  }
+
+  private static List<Chirp> newest(int k, List<CompletableFuture<List<Chirp>>> results) throws Exception {
+    return TopKChirps.newest(k, results).toCompletableFuture().get(3, SECONDS);
+  }
+
+}
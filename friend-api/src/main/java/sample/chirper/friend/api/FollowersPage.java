@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.api;
+
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.pcollections.PSequence;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+/**
+ * One page of the followers of a user, ordered by follower ID.
+ *
+ * The next page is requested by passing the <code>nextCursor</code> in the
+ * next request. There are no more followers when it's empty.
+ */
+@Immutable
+public final class FollowersPage {
+
+  public final PSequence<String> followers;
+  public final Optional<String> nextCursor;
+
+  @JsonCreator
+  public FollowersPage(PSequence<String> followers, Optional<String> nextCursor) {
+    this.followers = Preconditions.checkNotNull(followers, "followers");
+    this.nextCursor = Preconditions.checkNotNull(nextCursor, "nextCursor");
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof FollowersPage && equalTo((FollowersPage) another);
+  }
+
+  private boolean equalTo(FollowersPage another) {
+    return followers.equals(another.followers) && nextCursor.equals(another.nextCursor);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + followers.hashCode();
+    h = h * 17 + nextCursor.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("FollowersPage")
+      .add("followers", followers)
+      .add("nextCursor", nextCursor)
+      .toString();
+  }
+
+}
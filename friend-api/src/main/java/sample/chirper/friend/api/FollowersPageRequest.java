@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.api;
+
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+@Immutable
+public final class FollowersPageRequest {
+
+  /**
+   * The maximum number of followers a {@link FollowersPage} returns.
+   */
+  public final Optional<Integer> pageSize;
+  /**
+   * The cursor of a previous {@link FollowersPage}, to continue where that
+   * page ended.
+   */
+  public final Optional<String> cursor;
+
+  public FollowersPageRequest() {
+    this(Optional.empty(), Optional.empty());
+  }
+
+  @JsonCreator
+  public FollowersPageRequest(Optional<Integer> pageSize, Optional<String> cursor) {
+    this.pageSize = Preconditions.checkNotNull(pageSize, "pageSize");
+    this.cursor = Preconditions.checkNotNull(cursor, "cursor");
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof FollowersPageRequest && equalTo((FollowersPageRequest) another);
+  }
+
+  private boolean equalTo(FollowersPageRequest another) {
+    return pageSize.equals(another.pageSize) && cursor.equals(another.cursor);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + pageSize.hashCode();
+    h = h * 17 + cursor.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("FollowersPageRequest")
+      .add("pageSize", pageSize)
+      .add("cursor", cursor)
+      .toString();
+  }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.api;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.pcollections.PSequence;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+@Immutable
+@JsonDeserialize
+public final class FriendIds {
+
+  public final PSequence<String> friendIds;
+
+  @JsonCreator
+  public FriendIds(PSequence<String> friendIds) {
+    this.friendIds = Preconditions.checkNotNull(friendIds, "friendIds");
+  }
+
+  @Override
+  public boolean equals(@Nullable Object another) {
+    if (this == another)
+      return true;
+    return another instanceof FriendIds && equalTo((FriendIds) another);
+  }
+
+  private boolean equalTo(FriendIds another) {
+    return friendIds.equals(another.friendIds);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + friendIds.hashCode();
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper("FriendIds").add("friendIds", friendIds).toString();
+  }
+}
@@ -4,9 +4,11 @@
 package sample.chirper.friend.api;
 
 import static com.lightbend.lagom.javadsl.api.Service.named;
+import static com.lightbend.lagom.javadsl.api.Service.pathCall;
 import static com.lightbend.lagom.javadsl.api.Service.restCall;
 
 import akka.NotUsed;
+import akka.stream.javadsl.Source;
 import com.lightbend.lagom.javadsl.api.Descriptor;
 import com.lightbend.lagom.javadsl.api.Service;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
@@ -40,14 +42,50 @@ public interface FriendService extends Service {
    */
   ServiceCall<String, FriendId, NotUsed> addFriend();
 
+  /**
+   * Service call for adding several friends to a user at once.
+   *
+   * The ID for this service call is the ID of the user that the friends are being added to.
+   * The request message is the IDs of the friends being added, those that are friends already
+   * are skipped.
+   */
+  ServiceCall<String, FriendIds, NotUsed> addFriends();
+
   /**
    * Service call for getting the followers of a user.
    *
    * The ID for this service call is the Id of the user to get the followers for.
-   * The response message is the list of follower IDs.
+   * The response message is the list of follower IDs. All followers are read into memory, users
+   * with many followers are better served by {@link #getFollowersStream()} or
+   * {@link #getFollowersPage()}.
    */
   ServiceCall<String, NotUsed, PSequence<String>> getFollowers();
 
+  /**
+   * Service call for streaming the followers of a user.
+   *
+   * The ID for this service call is the Id of the user to get the followers for.
+   * The response is a stream of the follower IDs, which are read page by page as the stream
+   * is consumed.
+   */
+  ServiceCall<String, NotUsed, Source<String, ?>> getFollowersStream();
+
+  /**
+   * Service call for getting the followers of a user one page at a time.
+   *
+   * The ID for this service call is the Id of the user to get the followers for.
+   * The request message holds the page size and the cursor of the previous page, if any.
+   */
+  ServiceCall<String, FollowersPageRequest, FollowersPage> getFollowersPage();
+
+  /**
+   * Service call for following the friends added to a user.
+   *
+   * The ID for this service call is the ID of the user. The response is a stream of the IDs of
+   * the friends added to the user from now on.
+   */
+  ServiceCall<String, NotUsed, Source<FriendId, ?>> getFriendChanges();
+
   @Override
   default Descriptor descriptor() {
     // @formatter:off
@@ -55,7 +93,11 @@ public interface FriendService extends Service {
         restCall(Method.GET,  "/api/users/:id", getUser()),
         restCall(Method.POST, "/api/users", createUser()),
         restCall(Method.POST, "/api/users/:userId/friends", addFriend()),
-        restCall(Method.GET,  "/api/users/:id/followers", getFollowers())
+        restCall(Method.POST, "/api/users/:userId/friends/bulk", addFriends()),
+        pathCall("/api/users/:userId/friends/live", getFriendChanges()),
+        restCall(Method.GET,  "/api/users/:id/followers", getFollowers()),
+        pathCall("/api/users/:userId/followers/stream", getFollowersStream()),
+        restCall(Method.POST, "/api/users/:userId/followers/page", getFollowersPage())
       ).withAutoAcl(true);
     // @formatter:on
   }
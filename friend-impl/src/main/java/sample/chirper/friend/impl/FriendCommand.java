@@ -8,6 +8,8 @@ import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import org.pcollections.PSequence;
+
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.MoreObjects;
@@ -147,4 +149,39 @@ public interface FriendCommand extends Jsonable {
     }
   }
 
+  @SuppressWarnings("serial")
+  @Immutable
+  @JsonDeserialize
+  public final class AddFriends implements FriendCommand, PersistentEntity.ReplyType<Done> {
+    public final PSequence<String> friendUserIds;
+
+    @JsonCreator
+    public AddFriends(PSequence<String> friendUserIds) {
+      this.friendUserIds = Preconditions.checkNotNull(friendUserIds, "friendUserIds");
+    }
+
+    @Override
+    public boolean equals(@Nullable Object another) {
+      if (this == another)
+        return true;
+      return another instanceof AddFriends && equalTo((AddFriends) another);
+    }
+
+    private boolean equalTo(AddFriends another) {
+      return friendUserIds.equals(another.friendUserIds);
+    }
+
+    @Override
+    public int hashCode() {
+      int h = 31;
+      h = h * 17 + friendUserIds.hashCode();
+      return h;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper("AddFriends").add("friendUserIds", friendUserIds).toString();
+    }
+  }
+
 }
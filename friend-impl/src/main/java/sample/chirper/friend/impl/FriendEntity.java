@@ -4,14 +4,19 @@
 package sample.chirper.friend.impl;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+
+import javax.inject.Inject;
 
 import com.lightbend.lagom.javadsl.persistence.PersistentEntity;
 
 import akka.Done;
 import sample.chirper.friend.api.User;
 import sample.chirper.friend.impl.FriendCommand.AddFriend;
+import sample.chirper.friend.impl.FriendCommand.AddFriends;
 import sample.chirper.friend.impl.FriendCommand.CreateUser;
 import sample.chirper.friend.impl.FriendCommand.GetUser;
 import sample.chirper.friend.impl.FriendCommand.GetUserReply;
@@ -20,8 +25,21 @@ import sample.chirper.friend.impl.FriendEvent.UserCreated;
 
 public class FriendEntity extends PersistentEntity<FriendCommand, FriendEvent, FriendState> {
 
+  private final FriendMetrics metrics;
+  // the entity is created when it is activated, its recovery starts then
+  private final long createdAt = System.nanoTime();
+  private boolean recovering = true;
+  private boolean fromSnapshot;
+  private int eventsReplayed;
+
+  @Inject
+  public FriendEntity(FriendMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   @Override
   public Behavior initialBehavior(Optional<FriendState> snapshotState) {
+    fromSnapshot = snapshotState.isPresent();
 
     BehaviorBuilder b = newBehaviorBuilder(snapshotState.orElse(
       new FriendState(Optional.empty())));
@@ -41,14 +59,16 @@ public class FriendEntity extends PersistentEntity<FriendCommand, FriendEvent, F
       }
     });
 
-    b.setEventHandler(UserCreated.class,
-        evt -> new FriendState(Optional.of(new User(evt.userId, evt.name))));
+    b.setEventHandler(UserCreated.class, evt -> {
+      replayed();
+      return new FriendState(Optional.of(new User(evt.userId, evt.name)));
+    });
 
     b.setCommandHandler(AddFriend.class, (cmd, ctx) -> {
       if (!state().user.isPresent()) {
         ctx.invalidCommand("User " + entityId() + " is not  created");
         return ctx.done();
-      } else if (state().user.get().friends.contains(cmd.friendUserId)) {
+      } else if (state().isFriend(cmd.friendUserId)) {
         ctx.reply(Done.getInstance());
         return ctx.done();
       } else {
@@ -57,7 +77,30 @@ public class FriendEntity extends PersistentEntity<FriendCommand, FriendEvent, F
       }
     });
 
-    b.setEventHandler(FriendAdded.class, evt -> state().addFriend(evt.friendId));
+    b.setCommandHandler(AddFriends.class, (cmd, ctx) -> {
+      if (!state().user.isPresent()) {
+        ctx.invalidCommand("User " + entityId() + " is not  created");
+        return ctx.done();
+      }
+      // only the new friends, each of them once
+      List<FriendEvent> events = new ArrayList<FriendEvent>();
+      Set<String> added = new HashSet<>();
+      for (String friendUserId : cmd.friendUserIds) {
+        if (!state().isFriend(friendUserId) && added.add(friendUserId))
+          events.add(new FriendAdded(getUserId(), friendUserId));
+      }
+      if (events.isEmpty()) {
+        ctx.reply(Done.getInstance());
+        return ctx.done();
+      } else {
+        return ctx.thenPersistAll(events, () -> ctx.reply(Done.getInstance()));
+      }
+    });
+
+    b.setEventHandler(FriendAdded.class, evt -> {
+      replayed();
+      return state().addFriend(evt.friendId);
+    });
 
     b.setReadOnlyCommandHandler(GetUser.class, (cmd, ctx) -> {
       ctx.reply(new GetUserReply(state().user));
@@ -66,6 +109,20 @@ public class FriendEntity extends PersistentEntity<FriendCommand, FriendEvent, F
     return b.build();
   }
 
+  @Override
+  public Behavior recoveryCompleted() {
+    if (recovering) {
+      recovering = false;
+      metrics.recovered(fromSnapshot, eventsReplayed, System.nanoTime() - createdAt);
+    }
+    return behavior();
+  }
+
+  private void replayed() {
+    if (recovering)
+      eventsReplayed++;
+  }
+
   private String getUserId() {
     return state().user.get().userId;
   }
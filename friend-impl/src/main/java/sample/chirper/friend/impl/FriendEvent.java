@@ -17,13 +17,11 @@ import com.lightbend.lagom.javadsl.persistence.AggregateEvent;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
 import com.lightbend.lagom.serialization.Jsonable;
 
+/**
+ * The events of a user entity, tagged with the shard of the user.
+ */
 public interface FriendEvent extends Jsonable, AggregateEvent<FriendEvent> {
 
-  @Override
-  default public AggregateEventTag<FriendEvent> aggregateTag() {
-    return FriendEventTag.INSTANCE;
-  }
-
   @SuppressWarnings("serial")
   @Immutable
   @JsonDeserialize
@@ -43,6 +41,11 @@ public interface FriendEvent extends Jsonable, AggregateEvent<FriendEvent> {
       this.timestamp = timestamp.orElseGet(() -> Instant.now());
     }
 
+    @Override
+    public AggregateEventTag<FriendEvent> aggregateTag() {
+      return FriendEventTag.of(userId);
+    }
+
     @Override
     public boolean equals(@Nullable Object another) {
       if (this == another)
@@ -89,6 +92,11 @@ public interface FriendEvent extends Jsonable, AggregateEvent<FriendEvent> {
       this.timestamp = timestamp.orElseGet(() -> Instant.now());
     }
 
+    @Override
+    public AggregateEventTag<FriendEvent> aggregateTag() {
+      return FriendEventTag.of(userId);
+    }
+
     @Override
     public boolean equals(@Nullable Object another) {
       if (this == another)
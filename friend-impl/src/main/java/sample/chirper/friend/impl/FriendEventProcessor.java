@@ -4,11 +4,16 @@
 package sample.chirper.friend.impl;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
+
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
@@ -16,13 +21,95 @@ import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSideProces
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
 
 import akka.Done;
+import akka.actor.ActorSystem;
+import akka.japi.Pair;
+import play.Configuration;
 import sample.chirper.friend.impl.FriendEvent.FriendAdded;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Builds the <code>follower</code> table from the friend events.
+ *
+ * With a batch size above one, the follower rows of consecutive events are
+ * collected and written with one unlogged batch, followed by a single write
+ * of the offset. A batch is written when it is full or when its first event
+ * has waited for the maximum delay. Batches are written one after the other,
+ * so the stored offset never gets ahead of the followers written. A failed
+ * batch fails the handling of the next event, which restarts the processor
+ * from the stored offset. The read-side API offers no way to fail the
+ * processor between events, so a batch written after the maximum delay is
+ * retried first, otherwise its followers would be missing until the next
+ * event arrives. The follower inserts are idempotent, so events that
+ * are processed again are harmless.
+ *
+ * There is a processor for each shard of {@link FriendEventTag}, each with its
+ * own offset in <code>friend_offset</code>. The read-side API registers
+ * processors by class, so each shard index has a subclass, and the first
+ * {@link FriendEventTag#SHARDS} of them are registered. Lagom runs every
+ * processor as a cluster singleton on the oldest node, so all shards are
+ * processed on the same node: they run concurrently, each with its own
+ * offset, but adding nodes doesn't add processing capacity.
+ *
+ * The {@link Legacy} processor handles the events tagged before sharding, it
+ * keeps the offset row it always had. Once it has caught up, and no node runs
+ * a version without sharding anymore, it can be disabled with
+ * <code>friend.follower-projection.legacy-tag</code>.
+ */
+public abstract class FriendEventProcessor extends CassandraReadSideProcessor<FriendEvent> {
+
+  /** The offset partition of the legacy tag, the one used before sharding. */
+  public static final int LEGACY_OFFSET_PARTITION = 1;
+
+  /** The offset partition of shard <code>n</code> is this plus <code>n</code>. */
+  public static final int SHARD_OFFSET_PARTITIONS = 100;
+
+  /**
+   * The processors of all supported shards, in the order of the shards.
+   */
+  public static final List<Class<? extends FriendEventProcessor>> SHARD_PROCESSORS =
+    Collections.unmodifiableList(Arrays.asList(Shard0.class, Shard1.class, Shard2.class, Shard3.class,
+        Shard4.class, Shard5.class, Shard6.class, Shard7.class, Shard8.class, Shard9.class, Shard10.class,
+        Shard11.class, Shard12.class, Shard13.class, Shard14.class, Shard15.class));
 
-public class FriendEventProcessor extends CassandraReadSideProcessor<FriendEvent> {
+  /**
+   * The processors of the configured shards.
+   */
+  public static List<Class<? extends FriendEventProcessor>> shardProcessors() {
+    return SHARD_PROCESSORS.subList(0, FriendEventTag.SHARDS);
+  }
+
+  private final AggregateEventTag<FriendEvent> tag;
+  private final int offsetPartition;
+  private final FriendMetrics metrics;
+  private final int batchSize;
+  private final WriteBatcher<Pair<BoundStatement, UUID>> batcher;
 
+  private CassandraSession session = null; // initialized in prepare
   private PreparedStatement writeFollowers = null; // initialized in prepare
   private PreparedStatement writeOffset = null; // initialized in prepare
 
+  private FriendEventProcessor(int shard, ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+    this(FriendEventTag.shard(shard), SHARD_OFFSET_PARTITIONS + shard, system, metrics, configuration);
+  }
+
+  private FriendEventProcessor(AggregateEventTag<FriendEvent> tag, int offsetPartition, ActorSystem system,
+      FriendMetrics metrics, Configuration configuration) {
+    this.tag = tag;
+    this.offsetPartition = offsetPartition;
+    this.metrics = metrics;
+    this.batchSize = configuration.getInt("friend.follower-projection.batch-size");
+    FiniteDuration maxDelay = FiniteDuration.create(
+        configuration.getMilliseconds("friend.follower-projection.max-delay"), TimeUnit.MILLISECONDS);
+    int retries = configuration.getInt("friend.follower-projection.delayed-write-retries");
+    FiniteDuration retryDelay = FiniteDuration.create(
+        configuration.getMilliseconds("friend.follower-projection.retry-delay"), TimeUnit.MILLISECONDS);
+    this.batcher = new WriteBatcher<>(system, batchSize, maxDelay, retries, retryDelay, this::writeBatch);
+  }
+
+  private void setSession(CassandraSession session) {
+    this.session = session;
+  }
+
   private void setWriteFollowers(PreparedStatement writeFollowers) {
     this.writeFollowers = writeFollowers;
   }
@@ -33,11 +120,14 @@ public class FriendEventProcessor extends CassandraReadSideProcessor<FriendEvent
 
   @Override
   public AggregateEventTag<FriendEvent> aggregateTag() {
-    return FriendEventTag.INSTANCE;
+    return tag;
   }
 
   @Override
   public CompletionStage<Optional<UUID>> prepare(CassandraSession session) {
+    setSession(session);
+    // processing starts over from the stored offset
+    batcher.reset();
     // @formatter:off
     return
       prepareCreateTables(session).thenCompose(a ->
@@ -68,14 +158,14 @@ public class FriendEventProcessor extends CassandraReadSideProcessor<FriendEvent
   }
 
   private CompletionStage<Done> prepareWriteOffset(CassandraSession session) {
-    return session.prepare("INSERT INTO friend_offset (partition, offset) VALUES (1, ?)").thenApply(ps -> {
+    return session.prepare("INSERT INTO friend_offset (partition, offset) VALUES (?, ?)").thenApply(ps -> {
       setWriteOffset(ps);
       return Done.getInstance();
     });
   }
 
   private CompletionStage<Optional<UUID>> selectOffset(CassandraSession session) {
-    return session.selectOne("SELECT offset FROM friend_offset")
+    return session.selectOne("SELECT offset FROM friend_offset WHERE partition = ?", offsetPartition)
         .thenApply(
         optionalRow -> optionalRow.map(r -> r.getUUID("offset")));
   }
@@ -90,10 +180,148 @@ public class FriendEventProcessor extends CassandraReadSideProcessor<FriendEvent
     BoundStatement bindWriteFollowers = writeFollowers.bind();
     bindWriteFollowers.setString("userId", event.friendId);
     bindWriteFollowers.setString("followedBy", event.userId);
-    BoundStatement bindWriteOffset = writeOffset.bind(offset);
-    return completedStatements(Arrays.asList(bindWriteFollowers, bindWriteOffset));
+    if (batchSize <= 1) {
+      metrics.followerEventsWritten(1);
+      BoundStatement bindWriteOffset = writeOffset.bind(offsetPartition, offset);
+      return completedStatements(Arrays.asList(bindWriteFollowers, bindWriteOffset));
+    }
+    // completes when a full batch was written, fails when an earlier batch failed, which restarts
+    // the processor from the stored offset
+    return batcher.add(Pair.create(bindWriteFollowers, offset))
+        .thenApply(done -> Collections.<BoundStatement> emptyList());
+  }
+
+  private CompletionStage<Done> writeBatch(List<Pair<BoundStatement, UUID>> writes) {
+    BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+    for (Pair<BoundStatement, UUID> write : writes) {
+      batch.add(write.first());
+    }
+    BoundStatement bindWriteOffset = writeOffset.bind(offsetPartition, writes.get(writes.size() - 1).second());
+    return session.executeWriteBatch(batch)
+        .thenCompose(a -> session.executeWrite(bindWriteOffset))
+        .thenApply(done -> {
+          metrics.followerEventsWritten(writes.size());
+          return done;
+        });
+  }
+
+  public static class Legacy extends FriendEventProcessor {
+    @Inject
+    public Legacy(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(FriendEventTag.LEGACY, LEGACY_OFFSET_PARTITION, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard0 extends FriendEventProcessor {
+    @Inject
+    public Shard0(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(0, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard1 extends FriendEventProcessor {
+    @Inject
+    public Shard1(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(1, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard2 extends FriendEventProcessor {
+    @Inject
+    public Shard2(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(2, system, metrics, configuration);
+    }
   }
 
+  public static class Shard3 extends FriendEventProcessor {
+    @Inject
+    public Shard3(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(3, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard4 extends FriendEventProcessor {
+    @Inject
+    public Shard4(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(4, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard5 extends FriendEventProcessor {
+    @Inject
+    public Shard5(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(5, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard6 extends FriendEventProcessor {
+    @Inject
+    public Shard6(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(6, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard7 extends FriendEventProcessor {
+    @Inject
+    public Shard7(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(7, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard8 extends FriendEventProcessor {
+    @Inject
+    public Shard8(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(8, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard9 extends FriendEventProcessor {
+    @Inject
+    public Shard9(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(9, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard10 extends FriendEventProcessor {
+    @Inject
+    public Shard10(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(10, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard11 extends FriendEventProcessor {
+    @Inject
+    public Shard11(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(11, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard12 extends FriendEventProcessor {
+    @Inject
+    public Shard12(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(12, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard13 extends FriendEventProcessor {
+    @Inject
+    public Shard13(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(13, system, metrics, configuration);
+    }
+  }
 
+  public static class Shard14 extends FriendEventProcessor {
+    @Inject
+    public Shard14(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(14, system, metrics, configuration);
+    }
+  }
+
+  public static class Shard15 extends FriendEventProcessor {
+    @Inject
+    public Shard15(ActorSystem system, FriendMetrics metrics, Configuration configuration) {
+      super(15, system, metrics, configuration);
+    }
+  }
 
 }
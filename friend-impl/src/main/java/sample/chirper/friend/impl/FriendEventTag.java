@@ -3,11 +3,73 @@
  */
 package sample.chirper.friend.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+import com.typesafe.config.ConfigFactory;
 
+/**
+ * The tags of the friend events.
+ *
+ * The events of a user are tagged with one of {@link #SHARDS} tags, chosen by
+ * the hash of the user id, so that each shard can be processed on its own.
+ * Events that were persisted before sharding carry the {@link #LEGACY} tag.
+ * The tag is stored with an event when it is persisted, so changing the number
+ * of shards only affects new events.
+ *
+ * The number of shards is <code>friend.follower-projection.shards</code>. It
+ * is read when this class is loaded, because an event chooses its tag without
+ * access to the injected configuration.
+ */
 public class FriendEventTag {
 
-  public static final AggregateEventTag<FriendEvent> INSTANCE = 
+  /**
+   * The largest supported number of shards, there is a processor class for
+   * each of them, see {@link FriendEventProcessor#SHARD_PROCESSORS}.
+   */
+  public static final int MAX_SHARDS = 16;
+
+  public static final int SHARDS = shards(
+      ConfigFactory.load(FriendEventTag.class.getClassLoader()).getInt("friend.follower-projection.shards"));
+
+  /**
+   * The single tag that all events were tagged with before sharding.
+   */
+  public static final AggregateEventTag<FriendEvent> LEGACY =
     AggregateEventTag.of(FriendEvent.class);
 
+  private static final List<AggregateEventTag<FriendEvent>> SHARD_TAGS;
+
+  static {
+    List<AggregateEventTag<FriendEvent>> tags = new ArrayList<>(SHARDS);
+    for (int shard = 0; shard < SHARDS; shard++) {
+      tags.add(AggregateEventTag.of(FriendEvent.class, FriendEvent.class.getName() + shard));
+    }
+    SHARD_TAGS = Collections.unmodifiableList(tags);
+  }
+
+  static int shards(int shards) {
+    if (shards < 1 || shards > MAX_SHARDS)
+      throw new IllegalArgumentException(
+          "friend.follower-projection.shards must be between 1 and " + MAX_SHARDS + ", but was " + shards);
+    return shards;
+  }
+
+  /**
+   * The shard of the user, <code>String.hashCode</code> is the same on every node.
+   */
+  public static int shardOf(String userId) {
+    return Math.floorMod(userId.hashCode(), SHARDS);
+  }
+
+  public static AggregateEventTag<FriendEvent> shard(int shard) {
+    return SHARD_TAGS.get(shard);
+  }
+
+  public static AggregateEventTag<FriendEvent> of(String userId) {
+    return shard(shardOf(userId));
+  }
+
 }
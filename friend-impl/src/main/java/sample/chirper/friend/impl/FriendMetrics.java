@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import play.Logger;
+import play.Logger.ALogger;
+
+/**
+ * Node local counters of the friend service, registered as a JMX MBean.
+ */
+@Singleton
+public class FriendMetrics implements FriendMetricsMBean {
+
+  public static final String OBJECT_NAME = "sample.chirper:type=FriendMetrics";
+
+  private static final long THROUGHPUT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final AtomicLong recoveries = new AtomicLong();
+  private final AtomicLong recoveriesFromSnapshot = new AtomicLong();
+  private final AtomicLong eventsReplayed = new AtomicLong();
+  private final AtomicLong recoveryNanos = new AtomicLong();
+  private final AtomicLong lastEventsReplayed = new AtomicLong();
+  private final AtomicLong lastRecoveryNanos = new AtomicLong();
+  private final AtomicLong followerEventsWritten = new AtomicLong();
+  private final AtomicLong followerBatchesWritten = new AtomicLong();
+  private final AtomicLong followerEventsPerSecond = new AtomicLong();
+
+  // the window the follower throughput is measured in, guarded by this
+  private long throughputWindowStart = System.nanoTime();
+  private long throughputWindowEvents = 0;
+
+  @Inject
+  public FriendMetrics() {
+    register();
+  }
+
+  private void register() {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(OBJECT_NAME);
+      // there is only one service instance per JVM, except in tests
+      if (server.isRegistered(name))
+        server.unregisterMBean(name);
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      log.warn("Failed to register friend metrics MBean, due to: " + e.getMessage(), e);
+    }
+  }
+
+  public void recovered(boolean fromSnapshot, int events, long nanos) {
+    recoveries.incrementAndGet();
+    if (fromSnapshot)
+      recoveriesFromSnapshot.incrementAndGet();
+    eventsReplayed.addAndGet(events);
+    recoveryNanos.addAndGet(nanos);
+    lastEventsReplayed.set(events);
+    lastRecoveryNanos.set(nanos);
+  }
+
+  public synchronized void followerEventsWritten(int events) {
+    followerEventsWritten.addAndGet(events);
+    followerBatchesWritten.incrementAndGet();
+    throughputWindowEvents += events;
+    long now = System.nanoTime();
+    long elapsed = now - throughputWindowStart;
+    if (elapsed >= THROUGHPUT_WINDOW_NANOS) {
+      followerEventsPerSecond.set(throughputWindowEvents * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      throughputWindowStart = now;
+      throughputWindowEvents = 0;
+    }
+  }
+
+  @Override
+  public long getRecoveries() {
+    return recoveries.get();
+  }
+
+  @Override
+  public long getRecoveriesFromSnapshot() {
+    return recoveriesFromSnapshot.get();
+  }
+
+  @Override
+  public long getEventsReplayed() {
+    return eventsReplayed.get();
+  }
+
+  @Override
+  public long getRecoveryMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(recoveryNanos.get());
+  }
+
+  @Override
+  public long getLastEventsReplayed() {
+    return lastEventsReplayed.get();
+  }
+
+  @Override
+  public long getLastRecoveryMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(lastRecoveryNanos.get());
+  }
+
+  @Override
+  public long getFollowerEventsWritten() {
+    return followerEventsWritten.get();
+  }
+
+  @Override
+  public long getFollowerBatchesWritten() {
+    return followerBatchesWritten.get();
+  }
+
+  @Override
+  public long getFollowerEventsPerSecond() {
+    return followerEventsPerSecond.get();
+  }
+
+}
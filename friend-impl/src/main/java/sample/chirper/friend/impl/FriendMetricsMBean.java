@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+/**
+ * The metrics of the friend service, exposed over JMX as
+ * <code>sample.chirper:type=FriendMetrics</code>.
+ */
+public interface FriendMetricsMBean {
+
+  /** Total number of user entities recovered on this node. */
+  long getRecoveries();
+
+  /** Total number of user entity recoveries that started from a snapshot. */
+  long getRecoveriesFromSnapshot();
+
+  /** Total number of events replayed by the recoveries. */
+  long getEventsReplayed();
+
+  /** Total time spent recovering user entities. */
+  long getRecoveryMillis();
+
+  /** Events replayed by the last recovery. */
+  long getLastEventsReplayed();
+
+  /** Time the last recovery took. */
+  long getLastRecoveryMillis();
+
+  /** Total number of friend events written to the follower table by this node. */
+  long getFollowerEventsWritten();
+
+  /** Total number of follower batches, and offset writes, of this node. */
+  long getFollowerBatchesWritten();
+
+  /** Friend events written to the follower table per second, measured over at least a second. */
+  long getFollowerEventsPerSecond();
+
+}
@@ -4,6 +4,8 @@
 package sample.chirper.friend.impl;
 
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 
@@ -12,34 +14,62 @@ import javax.inject.Inject;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
 
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.SimpleStatement;
+import com.datastax.driver.core.Statement;
 import com.lightbend.lagom.javadsl.api.ServiceCall;
 import com.lightbend.lagom.javadsl.api.transport.NotFound;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRef;
 import com.lightbend.lagom.javadsl.persistence.PersistentEntityRegistry;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraReadSide;
 import com.lightbend.lagom.javadsl.persistence.cassandra.CassandraSession;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRef;
+import com.lightbend.lagom.javadsl.pubsub.PubSubRegistry;
+import com.lightbend.lagom.javadsl.pubsub.TopicId;
 
 import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import play.Configuration;
+import sample.chirper.friend.api.FollowersPage;
+import sample.chirper.friend.api.FollowersPageRequest;
 import sample.chirper.friend.api.FriendId;
+import sample.chirper.friend.api.FriendIds;
 import sample.chirper.friend.api.FriendService;
 import sample.chirper.friend.api.User;
 import sample.chirper.friend.impl.FriendCommand.AddFriend;
+import sample.chirper.friend.impl.FriendCommand.AddFriends;
 import sample.chirper.friend.impl.FriendCommand.CreateUser;
 import sample.chirper.friend.impl.FriendCommand.GetUser;
+import sample.chirper.friend.impl.FriendEvent.FriendAdded;
 
 public class FriendServiceImpl implements FriendService {
 
+  public static final int MAX_CHANGE_TOPICS = 1024;
+
   private final PersistentEntityRegistry persistentEntities;
   private final CassandraSession db;
+  private final PubSubRegistry topics;
+  private final int followersFetchSize;
+  private final int followersDefaultPageSize;
+  private final int followersMaxPageSize;
 
   @Inject
   public FriendServiceImpl(PersistentEntityRegistry persistentEntities, CassandraReadSide readSide,
-      CassandraSession db) {
+      CassandraSession db, PubSubRegistry topics, Configuration configuration) {
     this.persistentEntities = persistentEntities;
     this.db = db;
+    this.topics = topics;
+    this.followersFetchSize = configuration.getInt("friend.followers.fetch-size");
+    this.followersDefaultPageSize = configuration.getInt("friend.followers.default-page-size");
+    this.followersMaxPageSize = configuration.getInt("friend.followers.max-page-size");
 
     persistentEntities.register(FriendEntity.class);
-    readSide.register(FriendEventProcessor.class);
+    for (Class<? extends FriendEventProcessor> processor : FriendEventProcessor.shardProcessors()) {
+      readSide.register(processor);
+    }
+    // the events persisted before sharding
+    if (configuration.getBoolean("friend.follower-projection.legacy-tag"))
+      readSide.register(FriendEventProcessor.Legacy.class);
   }
 
   @Override
@@ -66,7 +96,38 @@ public class FriendServiceImpl implements FriendService {
   public ServiceCall<String, FriendId, NotUsed> addFriend() {
     return (id, request) -> {
       return friendEntityRef(id).ask(new AddFriend(request.friendId))
-          .thenApply(ack -> NotUsed.getInstance());
+          .thenApply(ack -> {
+            // also published when the friend was added before, the
+            // subscribers ignore friends they know already. The change is
+            // lost if this node fails after persisting it, the live streams
+            // of the user pick the friend up when they reconnect
+            friendChanges(id).publish(new FriendAdded(id, request.friendId));
+            return NotUsed.getInstance();
+          });
+    };
+  }
+
+  @Override
+  public ServiceCall<String, FriendIds, NotUsed> addFriends() {
+    return (id, request) -> {
+      return friendEntityRef(id).ask(new AddFriends(request.friendIds))
+          .thenApply(ack -> {
+            PubSubRef<FriendAdded> changes = friendChanges(id);
+            for (String friendId : request.friendIds) {
+              changes.publish(new FriendAdded(id, friendId));
+            }
+            return NotUsed.getInstance();
+          });
+    };
+  }
+
+  @Override
+  public ServiceCall<String, NotUsed, Source<FriendId, ?>> getFriendChanges() {
+    return (userId, req) -> {
+      Source<FriendId, ?> result = friendChanges(userId).subscriber()
+          .filter(evt -> evt.userId.equals(userId))
+          .map(evt -> new FriendId(evt.friendId));
+      return CompletableFuture.completedFuture(result);
     };
   }
 
@@ -82,6 +143,56 @@ public class FriendServiceImpl implements FriendService {
     };
   }
 
+  @Override
+  public ServiceCall<String, NotUsed, Source<String, ?>> getFollowersStream() {
+    return (userId, req) -> {
+      // the driver fetches the next page of rows as the stream is consumed
+      Statement select = new SimpleStatement("SELECT followedBy FROM follower WHERE userId = ?", userId)
+          .setFetchSize(followersFetchSize);
+      Source<String, ?> followers = db.select(select).map(row -> row.getString("followedBy"));
+      return CompletableFuture.completedFuture(followers);
+    };
+  }
+
+  @Override
+  public ServiceCall<String, FollowersPageRequest, FollowersPage> getFollowersPage() {
+    return (userId, req) -> {
+      int pageSize = req.pageSize.orElse(followersDefaultPageSize);
+      if (pageSize < 1 || pageSize > followersMaxPageSize)
+        throw new IllegalArgumentException(
+            "pageSize must be between 1 and " + followersMaxPageSize + ", but was " + pageSize);
+      // one follower more than the page tells whether there is a next page
+      CompletionStage<List<Row>> rows;
+      if (req.cursor.isPresent())
+        rows = db.selectAll("SELECT followedBy FROM follower WHERE userId = ? AND followedBy > ? LIMIT ?",
+            userId, req.cursor.get(), pageSize + 1);
+      else
+        rows = db.selectAll("SELECT followedBy FROM follower WHERE userId = ? LIMIT ?", userId, pageSize + 1);
+      return rows.thenApply(rs -> {
+        List<String> followers = rs.stream().map(row -> row.getString("followedBy")).collect(Collectors.toList());
+        if (followers.size() <= pageSize)
+          return new FollowersPage(TreePVector.from(followers), Optional.empty());
+        List<String> page = followers.subList(0, pageSize);
+        // the followers are the clustering column, the last one is where the next page starts
+        return new FollowersPage(TreePVector.from(page), Optional.of(page.get(pageSize - 1)));
+      });
+    };
+  }
+
+  /**
+   * The friend changes of a user are published to one of
+   * {@link #MAX_CHANGE_TOPICS} topics, selected by the hash of the user id,
+   * so that the number of topics gossiped in the cluster is bounded. The
+   * subscribers filter out the changes of the other users of the topic.
+   */
+  private PubSubRef<FriendAdded> friendChanges(String userId) {
+    return topics.refFor(TopicId.of(FriendAdded.class, changeTopicQualifier(userId)));
+  }
+
+  static String changeTopicQualifier(String userId) {
+    return String.valueOf(Math.floorMod(userId.hashCode(), MAX_CHANGE_TOPICS));
+  }
+
   private PersistentEntityRef<FriendCommand> friendEntityRef(String userId) {
     PersistentEntityRef<FriendCommand> ref = persistentEntities.refFor(FriendEntity.class, userId);
     return ref;
@@ -8,9 +8,13 @@ import java.util.Optional;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
+import org.pcollections.HashTreePSet;
 import org.pcollections.PSequence;
+import org.pcollections.PSet;
+import org.pcollections.TreePVector;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
@@ -18,23 +22,40 @@ import com.lightbend.lagom.serialization.Jsonable;
 
 import sample.chirper.friend.api.User;
 
+/**
+ * The state of a user entity. The friends are kept in the order they were
+ * added, in the user, and in a set for the membership checks.
+ */
 @SuppressWarnings("serial")
 @Immutable
 @JsonDeserialize
 public final class FriendState implements Jsonable {
 
   public final Optional<User> user;
+  // derived from the user's friends, not part of snapshots
+  @JsonIgnore
+  private final PSet<String> friendSet;
 
   @JsonCreator
   public FriendState(Optional<User> user) {
+    this(user, HashTreePSet.from(user.map(u -> u.friends).orElse(TreePVector.empty())));
+  }
+
+  private FriendState(Optional<User> user, PSet<String> friendSet) {
     this.user = Preconditions.checkNotNull(user, "user");
+    this.friendSet = friendSet;
+  }
+
+  public boolean isFriend(String friendUserId) {
+    return friendSet.contains(friendUserId);
   }
 
   public FriendState addFriend(String friendUserId) {
     if (!user.isPresent())
       throw new IllegalStateException("friend can't be added before user is created");
     PSequence<String> newFriends = user.get().friends.plus(friendUserId);
-    return new FriendState(Optional.of(new User(user.get().userId, user.get().name, Optional.of(newFriends))));
+    return new FriendState(Optional.of(new User(user.get().userId, user.get().name, Optional.of(newFriends))),
+        friendSet.plus(friendUserId));
   }
 
   @Override
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import static sample.chirper.utils.CompactBinary.varintSize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.pcollections.PSequence;
+import org.pcollections.TreePVector;
+
+import akka.serialization.SerializerWithStringManifest;
+import sample.chirper.friend.api.User;
+import sample.chirper.utils.CompactBinary;
+import sample.chirper.utils.CompactBinary.Reader;
+import sample.chirper.utils.CompactBinary.Writer;
+
+/**
+ * Compact binary serializer for the snapshots of the user entities, bound in
+ * <code>akka.actor.serialization-bindings</code>. Snapshots written as JSON
+ * before are still read by the JSON serializer they were written with.
+ *
+ * Layout: a version byte, a flags byte, and if there is a user, its id and
+ * name, the varint number of friends and the friends in the order they were
+ * added. Strings are written as varint length and UTF-8 bytes.
+ *
+ * The varints and strings are written and read with {@link CompactBinary},
+ * which the chirp serializer shares. Snapshots are stored, so a change to it
+ * must keep reading the bytes written before.
+ */
+public class FriendStateSerializer extends SerializerWithStringManifest {
+
+  private static final String STATE_MANIFEST = "S";
+
+  private static final int VERSION = 1;
+  private static final int FLAG_USER = 1;
+
+  @Override
+  public int identifier() {
+    return 20160501;
+  }
+
+  @Override
+  public String manifest(Object o) {
+    if (o instanceof FriendState)
+      return STATE_MANIFEST;
+    else
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+  }
+
+  @Override
+  public byte[] toBinary(Object o) {
+    if (!(o instanceof FriendState))
+      throw new IllegalArgumentException("Can't serialize object of type " + o.getClass());
+    FriendState state = (FriendState) o;
+    if (!state.user.isPresent())
+      return new byte[] { VERSION, 0 };
+
+    User user = state.user.get();
+    List<byte[]> strings = new ArrayList<>(user.friends.size() + 2);
+    strings.add(user.userId.getBytes(StandardCharsets.UTF_8));
+    strings.add(user.name.getBytes(StandardCharsets.UTF_8));
+    for (String friend : user.friends) {
+      strings.add(friend.getBytes(StandardCharsets.UTF_8));
+    }
+    int size = 2 + varintSize(user.friends.size());
+    for (byte[] s : strings) {
+      size += varintSize(s.length) + s.length;
+    }
+
+    Writer out = new Writer(size);
+    out.writeByte(VERSION);
+    out.writeByte(FLAG_USER);
+    out.writeBytes(strings.get(0));
+    out.writeBytes(strings.get(1));
+    out.writeVarint(user.friends.size());
+    for (int i = 2; i < strings.size(); i++) {
+      out.writeBytes(strings.get(i));
+    }
+    return out.bytes;
+  }
+
+  @Override
+  public Object fromBinary(byte[] bytes, String manifest) {
+    if (!STATE_MANIFEST.equals(manifest))
+      throw new IllegalArgumentException("Unknown manifest " + manifest);
+    Reader in = new Reader(bytes, "friend state");
+    int version = in.readByte();
+    if (version != VERSION)
+      throw new IllegalArgumentException("Unsupported friend state version " + version);
+    int flags = in.readByte();
+    if ((flags & FLAG_USER) == 0)
+      return new FriendState(Optional.empty());
+    String userId = in.readString();
+    String name = in.readString();
+    long count = in.readVarint();
+    if (count < 0 || count > bytes.length)
+      throw new IllegalArgumentException("Malformed friend count " + count);
+    List<String> friends = new ArrayList<>((int) count);
+    for (long i = 0; i < count; i++) {
+      friends.add(in.readString());
+    }
+    PSequence<String> friendSequence = TreePVector.from(friends);
+    return new FriendState(Optional.of(new User(userId, name, Optional.of(friendSequence))));
+  }
+
+}
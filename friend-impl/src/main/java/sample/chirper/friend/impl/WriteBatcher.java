@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import play.Logger;
+import play.Logger.ALogger;
+import scala.concurrent.duration.FiniteDuration;
+
+/**
+ * Collects elements into batches that are written when they are full, or when
+ * the first element of a batch has waited for the maximum delay.
+ *
+ * Batches are written one after the other. Once a write has failed, all later
+ * writes and additions fail too, until the batcher is reset, so that nothing
+ * is written after a batch that was lost.
+ *
+ * A batch written after the maximum delay has no caller waiting for it, its
+ * failure would only be noticed with the next addition. Its write is retried
+ * a number of times before it counts as failed, later batches wait for it.
+ */
+class WriteBatcher<T> {
+
+  private final ALogger log = Logger.of(getClass());
+
+  private final ActorSystem system;
+  private final int batchSize;
+  private final FiniteDuration maxDelay;
+  private final int retries;
+  private final FiniteDuration retryDelay;
+  private final Function<List<T>, CompletionStage<Done>> write;
+
+  // guarded by this
+  private List<T> pending = new ArrayList<>();
+  private CompletionStage<Done> lastWrite = CompletableFuture.completedFuture(Done.getInstance());
+  private Throwable failure = null;
+  private long generation = 0;
+
+  WriteBatcher(ActorSystem system, int batchSize, FiniteDuration maxDelay, int retries,
+      FiniteDuration retryDelay, Function<List<T>, CompletionStage<Done>> write) {
+    this.system = system;
+    this.batchSize = batchSize;
+    this.maxDelay = maxDelay;
+    this.retries = retries;
+    this.retryDelay = retryDelay;
+    this.write = write;
+  }
+
+  /**
+   * Add an element. The returned stage completes when the batch has been
+   * written if the element filled it, immediately otherwise. It fails when an
+   * earlier write has failed.
+   */
+  CompletionStage<Done> add(T element) {
+    boolean first;
+    boolean full;
+    synchronized (this) {
+      if (failure != null)
+        return failed(failure);
+      pending.add(element);
+      first = pending.size() == 1;
+      full = pending.size() >= batchSize;
+    }
+    if (full) {
+      // the caller waits for the write, a failure restarts it right away
+      return flush(0);
+    } else {
+      // a timer of an earlier batch may flush this one a bit early, which is harmless
+      if (first)
+        system.scheduler().scheduleOnce(maxDelay, this::flushDelayed, system.dispatcher());
+      return CompletableFuture.completedFuture(Done.getInstance());
+    }
+  }
+
+  /**
+   * Drop the pending elements and forget an earlier failure.
+   */
+  synchronized void reset() {
+    pending = new ArrayList<>();
+    lastWrite = CompletableFuture.completedFuture(Done.getInstance());
+    failure = null;
+    generation++;
+  }
+
+  private void flushDelayed() {
+    flush(retries).whenComplete((done, err) -> {
+      if (err != null)
+        log.warn("Failed to write batch, due to: " + err.getMessage());
+    });
+  }
+
+  private synchronized CompletionStage<Done> flush(int retries) {
+    if (pending.isEmpty())
+      return lastWrite;
+    List<T> batch = pending;
+    pending = new ArrayList<>();
+    long writeGeneration = generation;
+    lastWrite = lastWrite.thenCompose(a -> write(batch, retries, writeGeneration));
+    lastWrite.whenComplete((done, err) -> {
+      if (err != null)
+        failed(writeGeneration, err);
+    });
+    return lastWrite;
+  }
+
+  private CompletionStage<Done> write(List<T> batch, int retries, long writeGeneration) {
+    CompletableFuture<Done> result = new CompletableFuture<>();
+    attempt(batch).whenComplete((done, err) -> {
+      if (err == null) {
+        result.complete(done);
+      } else if (retries > 0 && isGeneration(writeGeneration)) {
+        log.warn("Failed to write batch, retrying in " + retryDelay + ", due to: " + err.getMessage());
+        system.scheduler().scheduleOnce(retryDelay, () ->
+          write(batch, retries - 1, writeGeneration).whenComplete((retried, retryErr) -> {
+            if (retryErr != null)
+              result.completeExceptionally(retryErr);
+            else
+              result.complete(retried);
+          }), system.dispatcher());
+      } else {
+        result.completeExceptionally(err);
+      }
+    });
+    return result;
+  }
+
+  private CompletionStage<Done> attempt(List<T> batch) {
+    try {
+      return write.apply(batch);
+    } catch (RuntimeException e) {
+      return failed(e);
+    }
+  }
+
+  private synchronized boolean isGeneration(long writeGeneration) {
+    // a reset in the meantime started over, the batch is processed again
+    return writeGeneration == generation;
+  }
+
+  private synchronized void failed(long writeGeneration, Throwable err) {
+    // a reset in the meantime started over
+    if (writeGeneration == generation && failure == null)
+      failure = err;
+  }
+
+  private static CompletionStage<Done> failed(Throwable err) {
+    CompletableFuture<Done> result = new CompletableFuture<>();
+    result.completeExceptionally(err);
+    return result;
+  }
+
+}
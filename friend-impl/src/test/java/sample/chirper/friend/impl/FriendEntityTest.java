@@ -5,6 +5,7 @@ package sample.chirper.friend.impl;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
 
@@ -22,6 +23,7 @@ import akka.actor.ActorSystem;
 import akka.testkit.JavaTestKit;
 import sample.chirper.friend.api.User;
 import sample.chirper.friend.impl.FriendCommand.AddFriend;
+import sample.chirper.friend.impl.FriendCommand.AddFriends;
 import sample.chirper.friend.impl.FriendCommand.CreateUser;
 import sample.chirper.friend.impl.FriendCommand.GetUser;
 import sample.chirper.friend.impl.FriendCommand.GetUserReply;
@@ -47,7 +49,7 @@ public class FriendEntityTest {
   @Test
   public void testCreateUser() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
 
     Outcome<FriendEvent, FriendState> outcome = driver.run(
         new CreateUser(new User("alice", "Alice")));
@@ -60,7 +62,7 @@ public class FriendEntityTest {
   @Test
   public void testRejectDuplicateCreate() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
     driver.run(new CreateUser(new User("alice", "Alice")));
 
     Outcome<FriendEvent, FriendState> outcome = driver.run(
@@ -73,7 +75,7 @@ public class FriendEntityTest {
   @Test
   public void testCreateUserWithInitialFriends() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
 
     TreePVector<String> friends = TreePVector.<String>empty().plus("bob").plus("peter");
     Outcome<FriendEvent, FriendState> outcome = driver.run(
@@ -88,7 +90,7 @@ public class FriendEntityTest {
   @Test
   public void testAddFriend() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
     driver.run(new CreateUser(new User("alice", "Alice")));
 
     Outcome<FriendEvent, FriendState> outcome = driver.run(new AddFriend("bob"), new AddFriend("peter"));
@@ -101,7 +103,7 @@ public class FriendEntityTest {
   @Test
   public void testAddDuplicateFriend() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
     driver.run(new CreateUser(new User("alice", "Alice")));
     driver.run(new AddFriend("bob"), new AddFriend("peter"));
 
@@ -111,10 +113,41 @@ public class FriendEntityTest {
     assertEquals(Collections.emptyList(), driver.getAllIssues());
   }
 
+  @Test
+  public void testAddFriends() {
+    PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
+        system, new FriendEntity(new FriendMetrics()), "user-1");
+    driver.run(new CreateUser(new User("alice", "Alice")));
+    driver.run(new AddFriend("bob"));
+
+    Outcome<FriendEvent, FriendState> outcome = driver.run(
+        new AddFriends(TreePVector.from(Arrays.asList("bob", "peter", "mary", "peter"))));
+    assertEquals(Done.getInstance(), outcome.getReplies().get(0));
+    assertEquals(2, outcome.events().size());
+    assertEquals("peter", ((FriendAdded) outcome.events().get(0)).friendId);
+    assertEquals("mary", ((FriendAdded) outcome.events().get(1)).friendId);
+    assertEquals(Arrays.asList("bob", "peter", "mary"), outcome.state().user.get().friends);
+    assertEquals(Collections.emptyList(), driver.getAllIssues());
+  }
+
+  @Test
+  public void testAddFriendsThatAreFriendsAlready() {
+    PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
+        system, new FriendEntity(new FriendMetrics()), "user-1");
+    driver.run(new CreateUser(new User("alice", "Alice")));
+    driver.run(new AddFriend("bob"), new AddFriend("peter"));
+
+    Outcome<FriendEvent, FriendState> outcome = driver.run(
+        new AddFriends(TreePVector.from(Arrays.asList("peter", "bob"))));
+    assertEquals(Done.getInstance(), outcome.getReplies().get(0));
+    assertEquals(Collections.emptyList(), outcome.events());
+    assertEquals(Collections.emptyList(), driver.getAllIssues());
+  }
+
   @Test
   public void testGetUser() {
     PersistentEntityTestDriver<FriendCommand, FriendEvent, FriendState> driver = new PersistentEntityTestDriver<>(
-        system, new FriendEntity(), "user-1");
+        system, new FriendEntity(new FriendMetrics()), "user-1");
     User alice = new User("alice", "Alice");
     driver.run(new CreateUser(alice));
 
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.lightbend.lagom.javadsl.persistence.AggregateEventTag;
+
+import sample.chirper.friend.impl.FriendEvent.FriendAdded;
+import sample.chirper.friend.impl.FriendEvent.UserCreated;
+
+public class FriendEventTagTest {
+
+  @Test
+  public void shouldTagAllEventsOfAUserWithTheSameShard() {
+    AggregateEventTag<FriendEvent> tag = FriendEventTag.of("usr1");
+    assertEquals(tag, new UserCreated("usr1", "User 1").aggregateTag());
+    assertEquals(tag, new FriendAdded("usr1", "usr2").aggregateTag());
+    assertNotEquals(FriendEventTag.LEGACY, tag);
+  }
+
+  @Test
+  public void shouldSpreadUsersOverAllShards() {
+    Set<AggregateEventTag<FriendEvent>> tags = new HashSet<>();
+    for (int i = 0; i < 1000; i++) {
+      int shard = FriendEventTag.shardOf("user-" + i);
+      assertTrue(shard >= 0 && shard < FriendEventTag.SHARDS);
+      tags.add(FriendEventTag.of("user-" + i));
+    }
+    assertEquals(FriendEventTag.SHARDS, tags.size());
+  }
+
+  @Test
+  public void shouldHaveAProcessorForEachShard() {
+    assertEquals(FriendEventTag.MAX_SHARDS, FriendEventProcessor.SHARD_PROCESSORS.size());
+    assertEquals(FriendEventTag.SHARDS, FriendEventProcessor.shardProcessors().size());
+    assertEquals(4, FriendEventTag.SHARDS);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectMoreShardsThanProcessors() {
+    FriendEventTag.shards(FriendEventTag.MAX_SHARDS + 1);
+  }
+
+}
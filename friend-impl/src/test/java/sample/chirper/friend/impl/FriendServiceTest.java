@@ -7,15 +7,23 @@ import static com.lightbend.lagom.javadsl.testkit.ServiceTest.*;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+import java.util.Optional;
+
 import org.junit.Test;
 import org.pcollections.PSequence;
 import org.pcollections.TreePVector;
+import sample.chirper.friend.api.FollowersPage;
+import sample.chirper.friend.api.FollowersPageRequest;
 import sample.chirper.friend.api.FriendId;
 import sample.chirper.friend.api.FriendService;
 import sample.chirper.friend.api.User;
 import scala.concurrent.duration.FiniteDuration;
 
 import akka.NotUsed;
+import akka.stream.javadsl.Source;
+import akka.stream.testkit.TestSubscriber.Probe;
+import akka.stream.testkit.javadsl.TestSink;
 
 public class FriendServiceTest {
 
@@ -48,6 +56,80 @@ public class FriendServiceTest {
     });
   }
 
+  @Test
+  public void shouldPageAndStreamFollowers() throws Exception {
+    withServer(defaultSetup(), server -> {
+      FriendService friendService = server.client(FriendService.class);
+      friendService.createUser().invoke(new User("usr6", "User 6")).toCompletableFuture().get(10, SECONDS);
+      for (String follower : Arrays.asList("usr7", "usr8", "usr9")) {
+        friendService.createUser().invoke(new User(follower, follower)).toCompletableFuture().get(3, SECONDS);
+        friendService.addFriend().invoke(follower, new FriendId("usr6")).toCompletableFuture().get(3, SECONDS);
+      }
+
+      eventually(FiniteDuration.create(10, SECONDS), () -> {
+        FollowersPage first = friendService.getFollowersPage()
+            .invoke("usr6", new FollowersPageRequest(Optional.of(2), Optional.empty()))
+            .toCompletableFuture().get(3, SECONDS);
+        assertEquals(TreePVector.empty().plus("usr7").plus("usr8"), first.followers);
+        assertEquals(Optional.of("usr8"), first.nextCursor);
+
+        FollowersPage second = friendService.getFollowersPage()
+            .invoke("usr6", new FollowersPageRequest(Optional.of(2), first.nextCursor))
+            .toCompletableFuture().get(3, SECONDS);
+        assertEquals(new FollowersPage(TreePVector.singleton("usr9"), Optional.empty()), second);
+      });
+
+      Source<String, ?> followers = friendService.getFollowersStream().invoke("usr6", NotUsed.getInstance())
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<String> probe = followers.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+      assertEquals("usr7", probe.expectNext());
+      assertEquals("usr8", probe.expectNext());
+      assertEquals("usr9", probe.expectNext());
+      probe.expectComplete();
+    });
+  }
 
+  @Test
+  public void shouldStreamAddedFriends() throws Exception {
+    withServer(defaultSetup(), server -> {
+      FriendService friendService = server.client(FriendService.class);
+      friendService.createUser().invoke(new User("usr4", "User 4")).toCompletableFuture().get(10, SECONDS);
+      friendService.createUser().invoke(new User("usr5", "User 5")).toCompletableFuture().get(3, SECONDS);
+
+      Source<FriendId, ?> changes = friendService.getFriendChanges().invoke("usr4", NotUsed.getInstance())
+          .toCompletableFuture().get(3, SECONDS);
+      Probe<FriendId> probe = changes.runWith(TestSink.probe(server.system()), server.materializer());
+      probe.request(10);
+
+      // the subscription is registered asynchronously, adding the friend again publishes it again
+      eventually(FiniteDuration.create(10, SECONDS), () -> {
+        friendService.addFriend().invoke("usr4", new FriendId("usr5")).toCompletableFuture().get(3, SECONDS);
+        assertEquals(new FriendId("usr5"), probe.expectNext(FiniteDuration.create(1, SECONDS)));
+      });
+
+      // the changes of another user of the same topic are not streamed
+      String other = userOfTheSameTopic("usr4");
+      friendService.createUser().invoke(new User(other, "Other")).toCompletableFuture().get(3, SECONDS);
+      friendService.addFriend().invoke(other, new FriendId("usr4")).toCompletableFuture().get(3, SECONDS);
+      friendService.addFriend().invoke("usr4", new FriendId(other)).toCompletableFuture().get(3, SECONDS);
+      // skipping the changes published again while waiting for the subscription
+      FriendId next = probe.expectNext(FiniteDuration.create(3, SECONDS));
+      while (next.equals(new FriendId("usr5"))) {
+        next = probe.expectNext(FiniteDuration.create(3, SECONDS));
+      }
+      assertEquals(new FriendId(other), next);
+      probe.cancel();
+    });
+  }
+
+  private static String userOfTheSameTopic(String userId) {
+    String qualifier = FriendServiceImpl.changeTopicQualifier(userId);
+    for (int i = 0;; i++) {
+      String other = "other" + i;
+      if (FriendServiceImpl.changeTopicQualifier(other).equals(qualifier))
+        return other;
+    }
+  }
 
 }
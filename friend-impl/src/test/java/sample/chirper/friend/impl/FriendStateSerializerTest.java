@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import sample.chirper.friend.api.User;
+
+public class FriendStateSerializerTest {
+
+  private final FriendStateSerializer serializer = new FriendStateSerializer();
+
+  private FriendState roundTrip(FriendState state) {
+    byte[] bytes = serializer.toBinary(state);
+    return (FriendState) serializer.fromBinary(bytes, serializer.manifest(state));
+  }
+
+  @Test
+  public void shouldRoundTripStateWithoutUser() {
+    FriendState state = new FriendState(Optional.empty());
+    assertEquals(state, roundTrip(state));
+  }
+
+  @Test
+  public void shouldRoundTripFriendsInOrder() {
+    FriendState state = new FriendState(Optional.of(new User("usr1", "Üser 1")));
+    for (int i = 300; i > 0; i--) {
+      state = state.addFriend("friend-" + i);
+    }
+    FriendState recovered = roundTrip(state);
+    assertEquals(state, recovered);
+    assertTrue(recovered.isFriend("friend-42"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectUnknownVersion() {
+    FriendState state = new FriendState(Optional.of(new User("usr1", "User 1")));
+    byte[] bytes = serializer.toBinary(state);
+    bytes[0] = 2;
+    serializer.fromBinary(bytes, serializer.manifest(state));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectTruncatedState() {
+    FriendState state = new FriendState(Optional.of(new User("usr1", "User 1")))
+        .addFriend("usr2");
+    byte[] bytes = serializer.toBinary(state);
+    byte[] truncated = new byte[bytes.length - 2];
+    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+    serializer.fromBinary(truncated, serializer.manifest(state));
+  }
+
+  @Test
+  public void shouldKeepTheStoredLayout() {
+    FriendState state = new FriendState(Optional.of(new User("u1", "N"))).addFriend("f");
+    // version, flags, userId, name, friend count, friends
+    byte[] stored = { 1, 1, 2, 'u', '1', 1, 'N', 1, 1, 'f' };
+    assertArrayEquals(stored, serializer.toBinary(state));
+    assertEquals(state, serializer.fromBinary(stored, serializer.manifest(state)));
+  }
+
+  @Test
+  public void shouldNameTheStateWhenTruncatedAnywhere() {
+    FriendState state = new FriendState(Optional.of(new User("usr1", "User 1")))
+        .addFriend("usr2").addFriend("usr3");
+    byte[] bytes = serializer.toBinary(state);
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        serializer.fromBinary(Arrays.copyOf(bytes, length), serializer.manifest(state));
+        fail("Expected " + length + " bytes to be rejected");
+      } catch (IllegalArgumentException e) {
+        assertEquals("Truncated friend state", e.getMessage());
+      }
+    }
+  }
+
+}
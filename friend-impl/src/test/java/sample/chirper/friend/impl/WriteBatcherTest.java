@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.friend.impl;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import akka.Done;
+import akka.actor.ActorSystem;
+import akka.testkit.JavaTestKit;
+import scala.concurrent.duration.FiniteDuration;
+
+public class WriteBatcherTest {
+
+  static ActorSystem system;
+
+  @BeforeClass
+  public static void setup() {
+    system = ActorSystem.create("WriteBatcherTest");
+  }
+
+  @AfterClass
+  public static void teardown() {
+    JavaTestKit.shutdownActorSystem(system);
+    system = null;
+  }
+
+  private final List<List<String>> written = new CopyOnWriteArrayList<>();
+
+  private CompletionStage<Done> record(List<String> batch) {
+    written.add(batch);
+    return CompletableFuture.completedFuture(Done.getInstance());
+  }
+
+  private static CompletionStage<Done> failing(List<String> batch) {
+    CompletableFuture<Done> result = new CompletableFuture<>();
+    result.completeExceptionally(new IllegalStateException("write failed"));
+    return result;
+  }
+
+  /**
+   * Fails the first <code>failures</code> writes, records the later ones.
+   */
+  private Function<List<String>, CompletionStage<Done>> failingFirst(int failures) {
+    AtomicInteger attempts = new AtomicInteger();
+    return batch -> attempts.incrementAndGet() <= failures ? failing(batch) : record(batch);
+  }
+
+  private void awaitWritten(int batches) throws InterruptedException {
+    long deadline = System.nanoTime() + SECONDS.toNanos(3);
+    while (written.size() < batches && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private static FiniteDuration millis(long millis) {
+    return FiniteDuration.create(millis, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void shouldWriteWhenTheBatchIsFull() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 3, FiniteDuration.create(1, TimeUnit.HOURS), 0,
+        millis(10), this::record);
+    batcher.add("a").toCompletableFuture().get(3, SECONDS);
+    batcher.add("b").toCompletableFuture().get(3, SECONDS);
+    assertEquals(Collections.emptyList(), written);
+
+    batcher.add("c").toCompletableFuture().get(3, SECONDS);
+    assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), written);
+  }
+
+  @Test
+  public void shouldWriteAfterTheMaximumDelay() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 100, millis(100), 0, millis(10), this::record);
+    batcher.add("a").toCompletableFuture().get(3, SECONDS);
+    batcher.add("b").toCompletableFuture().get(3, SECONDS);
+    assertEquals(Collections.emptyList(), written);
+
+    awaitWritten(1);
+    assertEquals(Collections.singletonList(Arrays.asList("a", "b")), written);
+  }
+
+  @Test
+  public void shouldFailAdditionsAfterADelayedWriteFailed() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 100, millis(100), 2, millis(10),
+        WriteBatcherTest::failing);
+    batcher.add("a").toCompletableFuture().get(3, SECONDS);
+
+    // the delayed write fails in the background, also when retried, the next addition reports it
+    long deadline = System.nanoTime() + SECONDS.toNanos(3);
+    ExecutionException failure = null;
+    while (failure == null && System.nanoTime() < deadline) {
+      try {
+        batcher.add("b").toCompletableFuture().get(3, SECONDS);
+        Thread.sleep(10);
+      } catch (ExecutionException e) {
+        failure = e;
+      }
+    }
+    if (failure == null)
+      fail("Expected an addition to fail");
+    assertTrue(failure.getCause() instanceof IllegalStateException);
+
+    // a reset starts over
+    batcher.reset();
+    batcher.add("c").toCompletableFuture().get(3, SECONDS);
+  }
+
+  @Test
+  public void shouldRetryADelayedWriteThatFailed() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 100, millis(100), 3, millis(10), failingFirst(2));
+    batcher.add("a").toCompletableFuture().get(3, SECONDS);
+
+    // written without a further addition
+    awaitWritten(1);
+    assertEquals(Collections.singletonList(Collections.singletonList("a")), written);
+
+    // and the failure doesn't count
+    batcher.add("b").toCompletableFuture().get(3, SECONDS);
+    awaitWritten(2);
+    assertEquals(Arrays.asList(Collections.singletonList("a"), Collections.singletonList("b")), written);
+  }
+
+  @Test
+  public void shouldWriteLaterBatchesAfterTheRetriedOne() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 2, millis(50), 3, millis(200), failingFirst(1));
+    batcher.add("a").toCompletableFuture().get(3, SECONDS);
+    // the delayed write of a failed, the full batch waits for its retry
+    Thread.sleep(100);
+    batcher.add("b").toCompletableFuture().get(3, SECONDS);
+    batcher.add("c").toCompletableFuture().get(3, SECONDS);
+    assertEquals(Arrays.asList(Collections.singletonList("a"), Arrays.asList("b", "c")), written);
+  }
+
+  @Test
+  public void shouldNotRetryAFullBatch() throws Exception {
+    WriteBatcher<String> batcher = new WriteBatcher<>(system, 1, FiniteDuration.create(1, TimeUnit.HOURS), 3,
+        millis(10), failingFirst(1));
+    try {
+      batcher.add("a").toCompletableFuture().get(3, SECONDS);
+      fail("Expected the addition to fail");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    assertEquals(Collections.emptyList(), written);
+  }
+
+}
@@ -50,31 +50,71 @@ var Chirp = React.createClass({
     }
 });
 
+// The batched streams send the chirps published within a short time window
+// as one array per message, so a busy stream costs one render per batch.
 function createUserStream(userId) {
-    return createStream("/api/chirps/live", function(stream) {
-        stream.send(JSON.stringify({userIds: [userId]}));
+    return createStream("/api/chirps/live-batched", function(resumeAfter) {
+        return {userIds: [userId], resumeAfter: resumeAfter};
     });
 }
 
 function createActivityStream(userId) {
-    return createStream("/api/activity/" + userId + "/live");
+    return createStream("/api/activity/" + userId + "/live/batched", function(resumeAfter) {
+        return {resumeAfter: resumeAfter};
+    });
 }
 
-function createStream(path, onopen) {
+// The 60 bit timestamp of a time-based chirp id as a fixed length hex string,
+// so that ids compare by their timestamp, or null for any other id.
+function chirpIdTimestamp(id) {
+    var parts = id ? id.split("-") : [];
+    if (parts.length != 5 || parts[2].charAt(0) != "1") {
+        return null;
+    }
+    return parts[2].substring(1) + parts[1] + parts[0];
+}
+
+// A dropped stream is reopened after the latest chirp received, so the server
+// only sends the chirps that were missed in between. Chirps of merged streams
+// don't arrive in order, so that is the chirp with the greatest id timestamp.
+function createStream(path, request) {
     return {
-        connect: function(onChirp) {
-            var stream = new WebSocket("ws://" + location.host + path);
-            if (onopen) {
+        connect: function(onChirps) {
+            var stream;
+            var closed = false;
+            var lastChirpId = null;
+            var lastChirpTimestamp = null;
+            var open = function() {
+                stream = new WebSocket("ws://" + location.host + path);
                 stream.onopen = function(event) {
-                    onopen(stream, event);
-                }.bind(this);
-            }
-            stream.onmessage = function(event) {
-                var chirp = JSON.parse(event.data);
-                onChirp(chirp);
-            }.bind(this);
+                    stream.send(JSON.stringify(request(lastChirpId)));
+                };
+                stream.onmessage = function(event) {
+                    var chirps = JSON.parse(event.data);
+                    if (!Array.isArray(chirps)) {
+                        chirps = [chirps];
+                    }
+                    if (chirps.length > 0) {
+                        chirps.forEach(function(chirp) {
+                            var timestamp = chirpIdTimestamp(chirp.uuid);
+                            if (timestamp && (!lastChirpTimestamp || timestamp > lastChirpTimestamp)) {
+                                lastChirpId = chirp.uuid;
+                                lastChirpTimestamp = timestamp;
+                            }
+                        });
+                        onChirps(chirps);
+                    }
+                };
+                stream.onclose = function(event) {
+                    if (!closed) {
+                        setTimeout(open, 1000);
+                    }
+                };
+            };
+            open();
             return {
                 close: function() {
+                    closed = true;
                     stream.close();
                 }
             }
@@ -92,8 +132,8 @@ var ChirpStream = React.createClass({
     },
     componentDidMount: function() {
         this.loadingUsers = {};
-        this.stream = this.props.stream.connect(function(chirp) {
-            var newChirps = [chirp].concat(this.state.chirps);
+        this.stream = this.props.stream.connect(function(chirps) {
+            var newChirps = chirps.slice().reverse().concat(this.state.chirps);
             this.setState({chirps: newChirps});
         }.bind(this));
     },
@@ -10,23 +10,31 @@ import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.inject.Inject;
 import play.Logger;
 import play.Logger.ALogger;
 import sample.chirper.activity.api.ActivityStreamService;
+import sample.chirper.activity.api.LiveActivityStreamReq;
 import sample.chirper.chirp.api.Chirp;
+import sample.chirper.chirp.api.ChirpIds;
 import sample.chirper.chirp.api.ChirpService;
-import sample.chirper.friend.api.FriendId;
+import sample.chirper.friend.api.FriendIds;
 import sample.chirper.friend.api.FriendService;
 import sample.chirper.friend.api.User;
 import sample.chirper.load.api.LoadTestService;
 import sample.chirper.load.api.TestParams;
 import scala.concurrent.duration.FiniteDuration;
 
+import org.pcollections.TreePVector;
+
+import akka.actor.ActorSystem;
 import akka.japi.Pair;
 import akka.stream.Materializer;
 import akka.stream.javadsl.Flow;
@@ -37,9 +45,12 @@ public class LoadTestServiceImpl implements LoadTestService {
   private final FriendService friendService;
   private final ActivityStreamService activityService;
   private final ChirpService chirpService;
+  private final ActorSystem system;
   private final Materializer materializer;
   private final ALogger log = Logger.of(getClass());
 
+  private static final FiniteDuration RECONNECT_DELAY = FiniteDuration.create(1, TimeUnit.SECONDS);
+
   // to create "unique" user ids we prefix them with this, convenient
   // to not have overlapping user ids when running in dev mode
   private final AtomicLong runSeq = new AtomicLong((System.currentTimeMillis()
@@ -47,10 +58,11 @@ public class LoadTestServiceImpl implements LoadTestService {
 
   @Inject
   public LoadTestServiceImpl(FriendService friendService, ActivityStreamService activityService,
-      ChirpService chirpService, Materializer materializer) {
+      ChirpService chirpService, ActorSystem system, Materializer materializer) {
     this.friendService = friendService;
     this.activityService = activityService;
     this.chirpService = chirpService;
+    this.system = system;
     this.materializer = materializer;
   }
 
@@ -81,23 +93,24 @@ public class LoadTestServiceImpl implements LoadTestService {
         .mapAsync(params.parallelism, user -> friendService.createUser().invoke(user))
         .via(summary("created users"));
 
-    Source<Pair<Integer, Integer>, ?> friendPairs = userNumbers.mapConcat(n -> {
-      List<Pair<Integer, Integer>> pairs = new ArrayList<>();
+    Source<Pair<Integer, FriendIds>, ?> friendsOfUsers = userNumbers.map(n -> {
+      List<String> friendIds = new ArrayList<>();
       for (int i = 1; i <= params.friends; i++) {
-        pairs.add(new Pair<>(n, n + i));
+        friendIds.add(userIdPrefix + (n + i));
       }
-      return pairs;
+      return new Pair<>(n, new FriendIds(TreePVector.from(friendIds)));
     });
 
     final AtomicLong chirpCount = new AtomicLong();
-    Source<String, ?> addedFriends = friendPairs.mapAsyncUnordered(params.parallelism, pair -> {
-      CompletionStage<NotUsed> invoked = friendService.addFriend().invoke(
-          userIdPrefix + pair.first(), new FriendId(userIdPrefix + pair.second()));
-      // start clients when last friend association has been created
-      if (params.users == pair.first() && (params.users + params.friends) == pair.second())
+    // all friends of a user are added with one call
+    Source<String, ?> addedFriends = friendsOfUsers.mapAsyncUnordered(params.parallelism, pair -> {
+      CompletionStage<NotUsed> invoked = friendService.addFriends().invoke(userIdPrefix + pair.first(),
+          pair.second());
+      // start clients when the friends of the last user have been added
+      if (params.users == pair.first())
         invoked.thenAccept(a -> startClients(params.clients, userIdPrefix, chirpCount, runSeqNr));
       return invoked;
-    }).via(summary("added friends"));
+    }).via(summary("added friends of users"));
 
     Source<Integer, ?> chirpNumbers = Source.range(1, params.chirps);
     Source<Chirp, ?> chirps = chirpNumbers.map(n -> {
@@ -156,16 +169,46 @@ public class LoadTestServiceImpl implements LoadTestService {
   private void startClients(int numberOfClients, String userIdPrefix, AtomicLong chirpCount, long runSeqNr) {
     log.info("starting " + numberOfClients + " clients for users prefixed with " + userIdPrefix);
     for (int n = 1; n <= numberOfClients; n++) {
-      activityService.getLiveActivityStream().invoke(userIdPrefix + n, NotUsed.getInstance()).thenAccept(src -> {
-        src
+      startClient(userIdPrefix + n, Optional.empty(), chirpCount, runSeqNr);
+    }
+  }
+
+  /**
+   * Like the front-end, a client whose stream fails reconnects and resumes
+   * after the latest chirp it received. The chirps of the merged streams
+   * don't arrive in order, so that is the chirp with the greatest id
+   * timestamp.
+   */
+  private void startClient(String userId, Optional<String> resumeAfter, AtomicLong chirpCount, long runSeqNr) {
+    AtomicReference<Optional<String>> lastChirpId = new AtomicReference<>(resumeAfter);
+    activityService.getLiveActivityStream().invoke(userId, new LiveActivityStreamReq(resumeAfter))
+      .thenCompose(src -> {
+        return src
           .map( chirp -> {
             if (runSeq.get() != runSeqNr) {
               throw new RuntimeException("New test started, stopping previous clients");
             }
             return chirp;
           })
-          .runForeach(chirp -> chirpCount.incrementAndGet(), materializer);
+          .runForeach(chirp -> {
+            if (isLater(chirp.uuid, lastChirpId.get()))
+              lastChirpId.set(Optional.of(chirp.uuid));
+            chirpCount.incrementAndGet();
+          }, materializer);
+      })
+      .whenComplete((done, err) -> {
+        if (runSeq.get() == runSeqNr) {
+          log.info("client " + userId + " disconnected, resuming after " + lastChirpId.get());
+          system.scheduler().scheduleOnce(RECONNECT_DELAY,
+              () -> startClient(userId, lastChirpId.get(), chirpCount, runSeqNr), system.dispatcher());
+        }
       });
-    }
+  }
+
+  private static boolean isLater(String chirpId, Optional<String> lastChirpId) {
+    if (!ChirpIds.isTimeBased(chirpId))
+      return false;
+    return !lastChirpId.isPresent()
+        || UUID.fromString(chirpId).timestamp() > UUID.fromString(lastChirpId.get()).timestamp();
   }
 }
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2016 Lightbend Inc. <http://www.lightbend.com>
+ */
+package sample.chirper.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The building blocks of the compact binary serializers: varints, zigzag
+ * encoded varints, big-endian longs and strings written as varint length and
+ * UTF-8 bytes.
+ */
+public final class CompactBinary {
+
+  private CompactBinary() {
+  }
+
+  public static long zigzag(long n) {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  public static long unzigzag(long n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  public static int varintSize(long n) {
+    int size = 1;
+    while ((n & ~0x7FL) != 0) {
+      n >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Writes into an array of the exact size computed up front.
+   */
+  public static final class Writer {
+    public final byte[] bytes;
+    private int position;
+
+    public Writer(int size) {
+      this.bytes = new byte[size];
+    }
+
+    public void writeByte(int b) {
+      bytes[position++] = (byte) b;
+    }
+
+    public void writeVarint(long n) {
+      while ((n & ~0x7FL) != 0) {
+        writeByte((int) ((n & 0x7F) | 0x80));
+        n >>>= 7;
+      }
+      writeByte((int) n);
+    }
+
+    public void writeLong(long n) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        writeByte((int) (n >>> shift));
+      }
+    }
+
+    public void writeBytes(byte[] b) {
+      writeVarint(b.length);
+      System.arraycopy(b, 0, bytes, position, b.length);
+      position += b.length;
+    }
+  }
+
+  /**
+   * Reads what a {@link Writer} wrote, failing with an
+   * IllegalArgumentException that names the serialized object if the bytes
+   * are truncated or malformed.
+   */
+  public static final class Reader {
+    private final byte[] bytes;
+    private final String what;
+    private int position;
+
+    public Reader(byte[] bytes, String what) {
+      this.bytes = bytes;
+      this.what = what;
+    }
+
+    public int readByte() {
+      if (position >= bytes.length)
+        throw new IllegalArgumentException("Truncated " + what);
+      return bytes[position++] & 0xFF;
+    }
+
+    public long readVarint() {
+      long n = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        n |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          return n;
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    public long readLong() {
+      long n = 0;
+      for (int i = 0; i < 8; i++) {
+        n = (n << 8) | readByte();
+      }
+      return n;
+    }
+
+    public String readString() {
+      long length = readVarint();
+      if (length < 0 || length > bytes.length - position)
+        throw new IllegalArgumentException("Truncated " + what);
+      String s = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+      position += (int) length;
+      return s;
+    }
+  }
+
+}